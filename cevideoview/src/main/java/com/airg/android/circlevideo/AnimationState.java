@@ -0,0 +1,52 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * The animated properties of a {@link CircularExpandableVideoView} at one step of an expand or collapse.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+final class AnimationState {
+    int width = 0;
+    int height = 0;
+
+    int paddingLeft = 0;
+    int paddingRight = 0;
+    int paddingBottom = 0;
+    int paddingTop = 0;
+
+    float cropRadius = 0f;
+
+    float volume = 0f;
+
+    // how far width/height and cropRadius are between the start and the end
+    float sizeFraction = 0f;
+    float radiusFraction = 0f;
+}
@@ -0,0 +1,62 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import android.animation.TypeEvaluator;
+
+/**
+ * Evaluators run on every animation frame, so they interpolate primitives directly and fill in one reused
+ * {@link AnimationState} instead of boxing through Int/FloatEvaluator and allocating a new state per frame. The
+ * returned state is only valid until the next call; one evaluator per animator.
+ */
+abstract class BaseVideoAnimateEvaluator implements TypeEvaluator<AnimationState> {
+    // the share of the animation spent changing the size while expanding, and the crop radius while collapsing
+    static final float SPLIT = 0.65f;
+
+    private final AnimationState values = new AnimationState();
+
+    static int lerp(final float fraction, final int start, final int end) {
+        return (int) (start + fraction * (end - start));
+    }
+
+    static float lerp(final float fraction, final float start, final float end) {
+        return start + fraction * (end - start);
+    }
+
+    AnimationState evaluate(final float fraction, final float sizeFrac, final float radiusFrac,
+                            final AnimationState startValue, final AnimationState endValue) {
+        values.width = lerp(sizeFrac, startValue.width, endValue.width);
+        values.height = lerp(sizeFrac, startValue.height, endValue.height);
+
+        values.cropRadius = lerp(radiusFrac, startValue.cropRadius, endValue.cropRadius);
+
+        values.paddingLeft = lerp(fraction, startValue.paddingLeft, endValue.paddingLeft);
+        values.paddingRight = lerp(fraction, startValue.paddingRight, endValue.paddingRight);
+        values.paddingTop = lerp(fraction, startValue.paddingTop, endValue.paddingTop);
+        values.paddingBottom = lerp(fraction, startValue.paddingBottom, endValue.paddingBottom);
+
+        values.volume = lerp(fraction, startValue.volume, endValue.volume);
+
+        values.sizeFraction = sizeFrac;
+        values.radiusFraction = radiusFrac;
+
+        return values;
+    }
+}
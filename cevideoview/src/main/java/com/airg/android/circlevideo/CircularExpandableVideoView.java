@@ -19,9 +19,6 @@
 package com.airg.android.circlevideo;
 
 import android.animation.Animator;
-import android.animation.FloatEvaluator;
-import android.animation.IntEvaluator;
-import android.animation.TypeEvaluator;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
@@ -36,23 +33,29 @@ import android.media.MediaPlayer;
 import android.net.Uri;
 import android.opengl.GLSurfaceView;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.view.GestureDetectorCompat;
+import android.text.Html;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.Surface;
+import android.view.WindowManager;
 
 import com.airg.android.logging.Logger;
 import com.airg.android.logging.TaggedLogger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.EqualsAndHashCode;
-import lombok.NoArgsConstructor;
 import lombok.Setter;
-import lombok.ToString;
 
 import static com.airg.android.circlevideo.Helper.calculateNormalizedRadius;
 
@@ -61,18 +64,32 @@ import static com.airg.android.circlevideo.Helper.calculateNormalizedRadius;
  */
 
 public class CircularExpandableVideoView extends GLSurfaceView
-        implements
-        MediaPlayer.OnErrorListener,
-        MediaPlayer.OnCompletionListener,
-        MediaPlayer.OnSeekCompleteListener,
-        MediaPlayer.OnPreparedListener, MediaPlayer.OnVideoSizeChangedListener, ValueAnimator.AnimatorUpdateListener {
+        implements PlaybackEngine.Listener, ValueAnimator.AnimatorUpdateListener {
 
     // Log tag
     private static final TaggedLogger LOG = Logger.tag("CEVideoView");
 
     static final float COLLAPSED_RADIUS = 0.5f;
-
-    private final MediaPlayer player = new MediaPlayer();
+    // smaller volume steps mid-animation aren't worth a call into the player
+    private static final float AUDIBLE_VOLUME_STEP = 0.01f;
+
+    // replaced when a prepared player is taken from the pool; read by the GL thread for subtitle timing
+    private volatile PlaybackEngine player = MediaPlayerEngine.FACTORY.create();
+    private PlaybackEngine.Factory engineFactory = MediaPlayerEngine.FACTORY;
+    private PlayerPool playerPool;
+    // an engine only takes one data source: set once it was given one, or came from the pool with one
+    private boolean playerHasSource = false;
+    private Surface videoSurface;
+
+    // renditions of the current video, smallest first, or null when a single source was set
+    private List<VideoRendition> renditions;
+    private VideoRendition currentRendition;
+    // prepared in the background and swapped in once it has caught up with the current position
+    private VideoRendition pendingRendition;
+    private PlaybackEngine pendingEngine;
+    // bubble size at the end of the running expand/collapse animation
+    private int animationTargetWidth;
+    private int animationTargetHeight;
     private final VideoRenderer mRenderer;
 
     private State state;
@@ -111,9 +128,25 @@ public class CircularExpandableVideoView extends GLSurfaceView
     float expandedVolume = 1f;
 
     float currentVolume = 0f;
+    // last volume an animation gave the player, NaN before the first step
+    private float pushedVolume = Float.NaN;
 
     int animationDuration = 500;
 
+    private boolean renderWhenDirty = true;
+    private boolean strictGlSync = false;
+    private boolean sharedGlContext = false;
+    private boolean preserveGlContext = false;
+    private float downsampleThreshold = 0f;
+    private boolean skipUnchangedFrames = false;
+    private boolean geometryMask = false;
+    private boolean scissorToBubble = false;
+    private boolean gpuAnimation = false;
+    private boolean glValidation = false;
+
+    // playback was running when onPause() paused it
+    private boolean resumePlayback = false;
+
     volatile boolean animating = false;
 
     private GestureDetectorCompat gestureDetector;
@@ -124,8 +157,18 @@ public class CircularExpandableVideoView extends GLSurfaceView
     private boolean encounteredMediaPlayerError = false;
 
 
-    private String vttSubtitiles;
-    private Typeface subtitilesFontFace;
+    // subtitles are parsed off the main thread; one shared worker is plenty since parsing is linear and rare
+    private static final Executor SUBTITLES_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CEVideoView-subtitles");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int subtitlesGeneration = 0;
 
     public CircularExpandableVideoView(Context context) {
         this(context, null);
@@ -142,6 +185,19 @@ public class CircularExpandableVideoView extends GLSurfaceView
             collapsed = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevCollapsed, collapsed);
             restartOnExpand = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevRestartOnExpand, restartOnExpand);
             loopVideo = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevLoopVideo, loopVideo);
+            renderWhenDirty = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevRenderWhenDirty, renderWhenDirty);
+            strictGlSync = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevStrictGlSync, strictGlSync);
+            sharedGlContext = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevSharedGlContext, sharedGlContext);
+            preserveGlContext = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevPreserveGlContext, preserveGlContext);
+            gpuAnimation = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevGpuAnimation, gpuAnimation);
+            glValidation = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevGlValidation, glValidation);
+            scissorToBubble = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevScissorToBubble, scissorToBubble);
+            geometryMask = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevGeometryMask, geometryMask);
+            skipUnchangedFrames = ta.getBoolean(R.styleable.CircularExpandableVideoView_cevSkipUnchangedFrames, skipUnchangedFrames);
+            downsampleThreshold = ta.getFloat(R.styleable.CircularExpandableVideoView_cevDownsampleThreshold, downsampleThreshold);
+
+            if (!Helper.checkRage(downsampleThreshold, 0f, 1f))
+                throw new IllegalArgumentException("Invalid downsample threshold (valid: 0-1): " + downsampleThreshold);
 
             collapsedVolume = ta.getFloat(R.styleable.CircularExpandableVideoView_cevCollapsedVolume, collapsedVolume);
 
@@ -169,7 +225,13 @@ public class CircularExpandableVideoView extends GLSurfaceView
             ta.recycle();
         }
 
-        mRenderer = new VideoRenderer(this);
+        mRenderer = new VideoRenderer(this, sharedGlContext);
+        mRenderer.setStrictSync(strictGlSync);
+        mRenderer.setDownsampleThreshold(downsampleThreshold);
+        mRenderer.setSkipUnchangedFrames(skipUnchangedFrames);
+        mRenderer.setGeometryMask(geometryMask);
+        mRenderer.setScissorToBubble(scissorToBubble);
+        mRenderer.setGlValidation(glValidation);
 
         initView();
     }
@@ -191,18 +253,240 @@ public class CircularExpandableVideoView extends GLSurfaceView
             setLayerType(LAYER_TYPE_SOFTWARE, null);
 
         setEGLContextClientVersion(2);
-        setEGLConfigChooser(8, 8, 8, 8, 16, 0);
+        // share the shader program and OES textures with every other view that opted in; either way the renderer
+        // releases its resources on the GL thread when the context goes
+        setEGLContextFactory(new RendererContextFactory(mRenderer, sharedGlContext));
+        // skipping unchanged frames needs a config whose window surfaces can keep their contents
+        setEGLConfigChooser(new EglConfigChooser(0, skipUnchangedFrames));
+        setPreserveEGLContextOnPause(preserveGlContext);
         getHolder().setFormat(PixelFormat.RGBA_8888);
 
         state = State.UNINITIALIZED;
 
-        initMediaPlayer();
+        resetPlayerState();
         setRenderer(mRenderer);
+        setRenderMode(renderWhenDirty ? RENDERMODE_WHEN_DIRTY : RENDERMODE_CONTINUOUSLY);
+        mRenderer.setContinuousRendering(!renderWhenDirty);
+
+        final WindowManager wm = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        if (null != wm) {
+            final float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+            if (refreshRate > 0f)
+                mRenderer.getScheduler().setFrameIntervalNanos((long) (1000000000L / refreshRate));
+        }
+    }
+
+    /**
+     * Only draw when a new video frame arrives, an animation is running or the subtitle changes (the default).
+     * Setting this to <code>false</code> redraws at display rate.
+     */
+    public void setRenderWhenDirty(final boolean whenDirty) {
+        renderWhenDirty = whenDirty;
+        setRenderMode(whenDirty ? RENDERMODE_WHEN_DIRTY : RENDERMODE_CONTINUOUSLY);
+        mRenderer.setContinuousRendering(!whenDirty);
+    }
+
+    /**
+     * Keep the EGL context, and with it the shader program, the video texture and the subtitle textures, across
+     * {@link #onPause()} / {@link #onResume()}. On resume the existing SurfaceTexture is handed back to the player
+     * instead of building everything again. Off by default. The context may still be lost if the device can't keep it.
+     */
+    public void setPreserveGlContext(final boolean preserve) {
+        preserveGlContext = preserve;
+        setPreserveEGLContextOnPause(preserve);
+    }
+
+    /**
+     * Call from the host's <code>onPause</code>. Pauses playback (resumed again by {@link #onResume()}) and the GL
+     * thread.
+     */
+    @Override
+    public void onPause() {
+        synchronized (this) {
+            resumePlayback = state == State.PLAY && !paused;
+            if (resumePlayback) pause();
+        }
+
+        super.onPause();
+    }
+
+    /**
+     * Call from the host's <code>onResume</code>. Resumes the GL thread and any playback paused by {@link #onPause()}.
+     */
+    @Override
+    public void onResume() {
+        mRenderer.markResumed();
+        super.onResume();
+
+        if (preserveGlContext) mRenderer.reattachSurface();
+
+        synchronized (this) {
+            if (resumePlayback) {
+                resumePlayback = false;
+                play();
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds from the last {@link #onResume()} to the first frame drawn after it, or -1 if there has been
+     * no resume yet. Compare with and without {@link #setPreserveGlContext(boolean)} to see what the rebuild costs.
+     */
+    public float getResumeToFirstFrameMillis() {
+        final long nanos = mRenderer.getResumeToFirstFrameNanos();
+        return nanos < 0 ? -1f : nanos / 1000000f;
+    }
+
+    /**
+     * Finish every frame with a blocking glFinish, as older versions did. Off by default; turn on only for GPU drivers
+     * that show tearing or stale frames without it.
+     */
+    public void setStrictGlSync(final boolean strict) {
+        strictGlSync = strict;
+        mRenderer.setStrictSync(strict);
+    }
+
+    /**
+     * While the video is shown smaller than <code>fraction</code> of its own size, e.g. in a collapsed bubble, shrink
+     * each new frame once into a small mipmapped texture and draw from that instead of the full resolution frame.
+     * Cuts texture bandwidth and aliasing for small bubbles at the cost of one extra pass per video frame. 0 (the
+     * default) turns it off.
+     */
+    public void setDownsampleThreshold(final float fraction) {
+        if (!Helper.checkRage(fraction, 0f, 1f))
+            throw new IllegalArgumentException("Invalid downsample threshold (valid: 0-1): " + fraction);
+
+        downsampleThreshold = fraction;
+        mRenderer.setDownsampleThreshold(fraction);
+        mRenderer.getScheduler().invalidate();
+    }
+
+    /**
+     * Draw the circular crop as a disc with a blended edge instead of masking every pixel of the video quad in the
+     * shader. Cheaper for collapsed bubbles; the quad is still used while the circle is larger than the video.
+     */
+    public void setGeometryMask(final boolean enabled) {
+        geometryMask = enabled;
+        mRenderer.setGeometryMask(enabled);
+        mRenderer.getScheduler().invalidate();
+    }
+
+    /**
+     * Interpolate the bubble between the two ends of an expand or collapse in the vertex shader instead of laying out
+     * every animation frame on the CPU. The quad then moves in a straight line, which can differ slightly from the
+     * CPU path where the layout clamps to the paddings. Applies from the next animation.
+     */
+    public void setGpuAnimation(final boolean enabled) {
+        gpuAnimation = enabled;
     }
 
+    /**
+     * Only touch the part of the window the bubble covers. Helps when the view is laid out much larger than its
+     * collapsed bubble. The draw is always limited; the clear only when <code>cevSkipUnchangedFrames</code> also got
+     * the window to keep its contents across swaps, otherwise the rest of the window would be undefined.
+     */
+    public void setScissorToBubble(final boolean enabled) {
+        scissorToBubble = enabled;
+        mRenderer.setScissorToBubble(enabled);
+        mRenderer.getScheduler().invalidate();
+    }
+
+    /**
+     * Draw subtitles from a glyph atlas that is rasterised once per typeface and size (the default), so a cue
+     * change only updates vertices. Cues in scripts that need shaping always fall back to a rasterised bitmap.
+     * Takes effect the next time the surface is (re)created.
+     */
+    public void setSubtitlesGlyphAtlas(final boolean enabled) {
+        mRenderer.setGlyphAtlasSubtitles(enabled);
+    }
+
+    /**
+     * @param strict <code>true</code> for frames drawn with strict GL sync, <code>false</code> for pipelined frames
+     * @return time from the start of one frame to the start of the next, swap included, for frames of the requested
+     * mode drawn back to back. Frames that follow a pause in rendering are not counted.
+     */
+    public FrameTimeHistogram getFrameTimeHistogram(final boolean strict) {
+        return mRenderer.getFrameTimes(strict);
+    }
+
+    /**
+     * @return time spent in the renderer's onDrawFrame for every frame drawn, from its start until the draw calls
+     * are issued (and, with strict GL sync, finished). The swap and any wait for the display are not included.
+     */
+    public FrameTimeHistogram getDrawCpuHistogram() {
+        return mRenderer.getDrawCpuTimes();
+    }
+
+    /**
+     * @return number of frames drawn since the view was created
+     */
+    public long getDrawnFrameCount() {
+        return mRenderer.getScheduler().drawnFrames();
+    }
+
+    /**
+     * @return number of display refreshes that were not drawn because nothing changed
+     */
+    public long getSkippedFrameCount() {
+        return mRenderer.getScheduler().skippedFrames();
+    }
+
+    /**
+     * @return number of redraw requests (video frames, animation steps, subtitle changes) that were folded into a
+     * frame that was already pending
+     */
+    public long getCoalescedRequestCount() {
+        return mRenderer.getScheduler().coalescedRequests();
+    }
+
+    /**
+     * @return number of times the view was asked to draw but left the previous frame on screen because nothing had
+     * changed. Always 0 unless <code>cevSkipUnchangedFrames</code> is set and the device supports it.
+     */
+    public long getUnchangedFrameCount() {
+        return mRenderer.getScheduler().unchangedFrames();
+    }
+
+    /**
+     * @return pixels cleared plus pixels the video could be drawn to in the last frame, to compare fill rate with
+     * and without {@link #setScissorToBubble(boolean)}
+     */
+    public long getLastFrameFillPixels() {
+        return mRenderer.getLastFrameFillPixels();
+    }
+
+    /**
+     * Check for GL errors after every step of a frame, as debug builds always do. Each check waits on the driver, so
+     * release builds skip them unless this is set.
+     */
+    public void setGlValidation(final boolean enabled) {
+        glValidation = enabled;
+        mRenderer.setGlValidation(enabled);
+    }
+
+    /**
+     * @param listener told how many GL calls each frame took, or <code>null</code> to stop
+     */
+    public void setGlCallListener(final GlCallListener listener) {
+        mRenderer.setGlCallListener(listener);
+    }
+
+    /**
+     * Get a player ready to be given a data source, replacing the current one if it already has one.
+     */
     private synchronized void initMediaPlayer() {
+        if (playerHasSource) {
+            swapPlayer(engineFactory.create(), false);
+            mRenderer.reattachSurface();
+        }
+
+        resetPlayerState();
+        playerHasSource = true;
+    }
+
+    private synchronized void resetPlayerState() {
         state = State.UNINITIALIZED;
-        player.setOnVideoSizeChangedListener(this);
+        player.setListener(this);
         //player.reset();
 
         currentVolume = collapsed ? collapsedVolume : expandedVolume;
@@ -216,10 +500,37 @@ public class CircularExpandableVideoView extends GLSurfaceView
         actionsListener = listener;
     }
 
+    /**
+     * Play through engines made by <code>factory</code> instead of the framework MediaPlayer. Replaces the current
+     * engine, so call it before setting a video. {@link MediaCodecEngine} falls back to the MediaPlayer below API 16.
+     */
+    public synchronized void setPlaybackEngineFactory(final PlaybackEngine.Factory factory) {
+        if (factory == MediaCodecEngine.FACTORY && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            LOG.e("MediaCodecEngine requires API 16, using MediaPlayer");
+            engineFactory = MediaPlayerEngine.FACTORY;
+        } else {
+            engineFactory = null == factory ? MediaPlayerEngine.FACTORY : factory;
+        }
+        swapPlayer(engineFactory.create(), false);
+        resetPlayerState();
+        mRenderer.reattachSurface();
+    }
+
+    /**
+     * Take players from <code>pool</code> when a preloaded path or uri is set. Pass <code>null</code> to always
+     * prepare a new player.
+     */
+    public synchronized void setPlayerPool(final PlayerPool pool) {
+        playerPool = pool;
+    }
+
     /**
      * @see android.media.MediaPlayer#setDataSource(String)
      */
     public synchronized void setVideoPath(final String path) {
+        clearRenditions();
+        if (adoptPooledPlayer(path)) return;
+
         initMediaPlayer();
 
         try {
@@ -234,6 +545,9 @@ public class CircularExpandableVideoView extends GLSurfaceView
      * @see android.media.MediaPlayer#setDataSource(android.content.Context, android.net.Uri)
      */
     public synchronized void setVideoUri(final Uri uri) {
+        clearRenditions();
+        if (adoptPooledPlayer(uri.toString())) return;
+
         initMediaPlayer();
 
         try {
@@ -244,15 +558,203 @@ public class CircularExpandableVideoView extends GLSurfaceView
         }
     }
 
+    /**
+     * Play one of several encodings of the same video, picking the smallest that covers the bubble: a low resolution
+     * one while collapsed and full resolution when expanded. The switch to a larger rendition starts with the expand
+     * animation; the switch to a smaller one happens once collapsed. All renditions must have the same duration.
+     */
+    public synchronized void setVideoRenditions(final List<VideoRendition> videoRenditions) {
+        if (null == videoRenditions || videoRenditions.isEmpty())
+            throw new IllegalArgumentException("No renditions");
+
+        final List<VideoRendition> sorted = new ArrayList<>(videoRenditions);
+        Collections.sort(sorted, new Comparator<VideoRendition>() {
+            @Override
+            public int compare(VideoRendition a, VideoRendition b) {
+                return a.pixels() < b.pixels() ? -1 : (a.pixels() == b.pixels() ? 0 : 1);
+            }
+        });
+
+        final VideoRendition initial = collapsed
+                ? VideoRendition.pick(sorted, collapsedWidth, collapsedHeight)
+                : VideoRendition.pick(sorted, getMeasuredWidth(), getMeasuredHeight());
+
+        setVideoUri(initial.uri());
+
+        renditions = sorted;
+        currentRendition = initial;
+    }
+
+    private synchronized void clearRenditions() {
+        discardPendingRendition();
+        renditions = null;
+        currentRendition = null;
+    }
+
+    private synchronized void discardPendingRendition() {
+        if (null != pendingEngine) pendingEngine.release();
+        pendingEngine = null;
+        pendingRendition = null;
+    }
+
+    /**
+     * Switch to the rendition that fits a <code>w</code> x <code>h</code> bubble, if it isn't the current one.
+     *
+     * @param upgradeOnly only switch to a larger rendition, e.g. while the bubble is still animating
+     */
+    private synchronized void updateRendition(final int w, final int h, final boolean upgradeOnly) {
+        if (null == renditions) return;
+
+        final VideoRendition target = VideoRendition.pick(renditions, w, h);
+        if (target == currentRendition || target == pendingRendition) return;
+        if (upgradeOnly && target.pixels() < currentRendition.pixels()) return;
+
+        discardPendingRendition();
+
+        // nothing on screen yet: simply start over with the new source, on a new engine
+        if (state != State.PREPARED && state != State.PLAY && state != State.END) {
+            final List<VideoRendition> current = renditions;
+            final boolean play = playWhenReady;
+            setVideoUri(target.uri());
+            renditions = current;
+            currentRendition = target;
+            if (play) play();
+            return;
+        }
+
+        if (BuildConfig.DEBUG) LOG.d("Switching rendition to %dx%d", target.width(), target.height());
+
+        final PlaybackEngine next = engineFactory.create();
+        pendingEngine = next;
+        pendingRendition = target;
+
+        next.setListener(new PlaybackEngine.Listener() {
+            @Override
+            public void onPrepared() {
+                synchronized (CircularExpandableVideoView.this) {
+                    if (next != pendingEngine) return;
+                    next.seekTo(currentPosition());
+                }
+            }
+
+            @Override
+            public void onSeekComplete() {
+                handOver(next);
+            }
+
+            @Override
+            public boolean onError(int what, int extra) {
+                LOG.d("Unable to switch rendition: 0x%x (extra: 0x%x)", what, extra);
+                synchronized (CircularExpandableVideoView.this) {
+                    if (next == pendingEngine) discardPendingRendition();
+                }
+                return true;
+            }
+
+            @Override
+            public void onVideoSizeChanged(int width, int height) {
+            }
+
+            @Override
+            public void onCompletion() {
+            }
+        });
+
+        try {
+            next.setDataSource(getContext(), target.uri());
+            next.prepareAsync();
+        } catch (IOException e) {
+            LOG.e(e);
+            discardPendingRendition();
+        }
+    }
+
+    /**
+     * Make the prepared and positioned <code>next</code> engine the current one.
+     */
+    private synchronized void handOver(final PlaybackEngine next) {
+        if (next != pendingEngine) return;
+
+        final boolean resume = state == State.PLAY && !paused;
+
+        // a SurfaceTexture takes one producer at a time: let go of the old engine before attaching the new one
+        final PlaybackEngine previous = player;
+        player = next;
+        pendingEngine = null;
+        currentRendition = pendingRendition;
+        pendingRendition = null;
+        playerHasSource = true;
+        previous.release();
+
+        next.setListener(this);
+        next.setLooping(loopVideo);
+        setVolume(currentVolume, currentVolume);
+        mRenderer.reattachSurface();
+        mRenderer.setVideoSize(next.getVideoWidth(), next.getVideoHeight());
+
+        if (resume) next.start();
+    }
+
     public void setSubtitles(String vttText, Typeface fontFace) {
-        vttSubtitiles = vttText;
-        subtitilesFontFace = fontFace;
+        setSubtitles(vttText, fontFace, null);
+    }
+
+    /**
+     * Parse <code>vttText</code> on a background thread and attach the captions when done. Playback does not wait
+     * for the subtitles. Calling this again before a previous parse finishes discards the older result.
+     *
+     * @param listener notified on the main thread once the captions are attached. May be <code>null</code>.
+     */
+    public void setSubtitles(final String vttText, final Typeface fontFace, final SubtitlesListener listener) {
+        final int token;
+        synchronized (this) {
+            token = ++subtitlesGeneration;
+        }
+
+        SUBTITLES_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CueTimeline cues = parseSubtitles(vttText);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (CircularExpandableVideoView.this) {
+                            if (token != subtitlesGeneration) return;
+                        }
+
+                        mRenderer.setSubtitles(cues, fontFace);
+                        if (BuildConfig.DEBUG) LOG.d("Subtitles ready: %d cues", cues.size());
+
+                        if (null != listener) listener.onSubtitlesReady(cues.size());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Parse WebVTT and strip the cue markup once, here, rather than on the GL thread every time a cue is shown.
+     */
+    private static CueTimeline parseSubtitles(final String vttText) {
+        if (null == vttText) return CueTimeline.EMPTY;
+
+        final List<SubtitleCue> cues = new ArrayList<>();
+        WebVttParser.parse(vttText, new WebVttParser.CueListener() {
+            @Override
+            public void onCue(final SubtitleCue cue) {
+                cues.add(new SubtitleCue(cue.startMs, cue.endMs, Html.fromHtml(cue.text).toString()));
+            }
+        });
+
+        return new CueTimeline(cues);
     }
 
     /**
      * @see android.media.MediaPlayer#setDataSource(java.io.FileDescriptor)
      */
     public synchronized void setVideoFileDescriptor(final AssetFileDescriptor afd) {
+        clearRenditions();
         initMediaPlayer();
 
         try {
@@ -268,16 +770,63 @@ public class CircularExpandableVideoView extends GLSurfaceView
     @Override
     protected void onDetachedFromWindow() {
         LOG.d("Releasing players");
+        discardPendingRendition();
         player.release();
+
+        synchronized (this) {
+            if (null != videoSurface) {
+                videoSurface.release();
+                videoSurface = null;
+            }
+        }
+
+        // stops the GL thread, which has the renderer release its resources as the context is destroyed
         super.onDetachedFromWindow();
     }
 
+    /**
+     * Switch to the pooled player for <code>source</code>, if there is one. If it has finished preparing this behaves
+     * as if {@link #onPrepared()} had just been called.
+     */
+    private synchronized boolean adoptPooledPlayer(final String source) {
+        if (null == playerPool) return false;
+
+        final PlayerPool.Entry entry = playerPool.take(source);
+        if (null == entry) return false;
+
+        swapPlayer(new MediaPlayerEngine(entry.player), true);
+        resetPlayerState();
+        player.setLooping(loopVideo);
+
+        // the surface may not exist yet, in which case the renderer sets it once it does
+        mRenderer.reattachSurface();
+
+        if (entry.prepared) {
+            // the size change was reported to the pool, not to us
+            final int width = player.getVideoWidth();
+            final int height = player.getVideoHeight();
+            if (width > 0 && height > 0) mRenderer.setVideoSize(width, height);
+
+            onPrepared();
+        }
+
+        return true;
+    }
+
+    /**
+     * @param fromPool <code>replacement</code> came from the pool, with a data source already set
+     */
+    private synchronized void swapPlayer(final PlaybackEngine replacement, final boolean fromPool) {
+        final PlaybackEngine previous = player;
+        player = replacement;
+        playerHasSource = fromPool;
+        paused = false;
+        encounteredMediaPlayerError = false;
+        previous.release();
+    }
+
     private synchronized void prepare() {
         try {
-            player.setOnCompletionListener(this);
-            player.setOnErrorListener(this);
-            player.setOnPreparedListener(this);
-            player.setOnSeekCompleteListener(this);
             player.prepareAsync();
         } catch (Exception e) {
             e.printStackTrace();
@@ -286,7 +835,7 @@ public class CircularExpandableVideoView extends GLSurfaceView
     }
 
     @Override
-    public synchronized void onPrepared(MediaPlayer mediaPlayer) {
+    public synchronized void onPrepared() {
         state = State.PREPARED;
         encounteredMediaPlayerError = false;
 
@@ -296,7 +845,7 @@ public class CircularExpandableVideoView extends GLSurfaceView
         }
 
         if (actionsListener != null) {
-            actionsListener.onPrepared(mediaPlayer);
+            actionsListener.onPrepared(getMediaPlayer());
         }
     }
 
@@ -327,14 +876,36 @@ public class CircularExpandableVideoView extends GLSurfaceView
         mRenderer.updateScale();
     }
 
-    public void seekTo(final int msec) {
+    public synchronized void seekTo(final int msec) {
         player.seekTo(msec);
+        // keep a rendition that is being prepared in step
+        if (null != pendingEngine) pendingEngine.seekTo(msec);
     }
 
+    /**
+     * @return the framework player behind the default engine, or <code>null</code> if a different
+     * {@link PlaybackEngine} is in use
+     */
     public MediaPlayer getMediaPlayer () {
+        final PlaybackEngine engine = player;
+        return engine instanceof MediaPlayerEngine ? ((MediaPlayerEngine) engine).getMediaPlayer() : null;
+    }
+
+    public PlaybackEngine getPlaybackEngine() {
         return player;
     }
 
+    /**
+     * @return current playback position, or -1 if the player can't report one (e.g. already released)
+     */
+    int currentPosition() {
+        try {
+            return player.getCurrentPosition();
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+    }
+
     public int getDuration () {
         return player.getDuration();
     }
@@ -353,11 +924,6 @@ public class CircularExpandableVideoView extends GLSurfaceView
     }
 
     public synchronized void play() {
-
-        if (null != vttSubtitiles) {
-            mRenderer.setSubtitles(getContext(), vttSubtitiles, subtitilesFontFace, player);
-        }
-
         switch (state) {
             case PLAY:
                 if (paused) {
@@ -403,24 +969,24 @@ public class CircularExpandableVideoView extends GLSurfaceView
     }
 
     @Override
-    public synchronized void onCompletion(MediaPlayer mp) {
+    public synchronized void onCompletion() {
         state = State.END;
         if (BuildConfig.DEBUG) LOG.d("Video has ended.");
 
         if (actionsListener != null) {
-            actionsListener.onVideoEnd(mp);
+            actionsListener.onVideoEnd(getMediaPlayer());
         }
     }
 
     @Override
-    public boolean onError(MediaPlayer mp, int what, int extra) {
+    public boolean onError(int what, int extra) {
         LOG.d("Mediaplayer error: 0x%x (eaxtra: 0x%x)", what, extra);
         encounteredMediaPlayerError = true;
         return false;
     }
 
     @Override
-    public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+    public void onVideoSizeChanged(int width, int height) {
         if (BuildConfig.DEBUG) LOG.d("Video size changed (%dx%d)", width, height);
         mRenderer.setVideoSize(width, height);
     }
@@ -455,6 +1021,8 @@ public class CircularExpandableVideoView extends GLSurfaceView
     }
 
     public void collapse() {
+        final ValueAnimator animator;
+
         synchronized (mRenderer) {
             if (collapsed) {
                 if (BuildConfig.DEBUG) LOG.d("Already collapsed");
@@ -477,16 +1045,24 @@ public class CircularExpandableVideoView extends GLSurfaceView
 
             if (BuildConfig.DEBUG) LOG.d("Collapsing sizeFrom %s sizeTo %s", from, to);
 
-            final ValueAnimator animator = ValueAnimator.ofObject(new VideoCollapseEvaluator(), from, to);
+            animationTargetWidth = collapsedWidth;
+            animationTargetHeight = collapsedHeight;
+            if (gpuAnimation) beginGpuAnimation(to);
+
+            animator = ValueAnimator.ofObject(new VideoCollapseEvaluator(), from, to);
 
             animator.setDuration(animationDuration)
                     .addListener(new ExpandCollapseListener(true));
             animator.addUpdateListener(this);
-            animator.start();
         }
+
+        // the listener calls into the player and the host: not under the renderer lock
+        animator.start();
     }
 
     public void expand() {
+        final ValueAnimator animator;
+
         synchronized (mRenderer) {
             if (!collapsed) {
                 if (BuildConfig.DEBUG) LOG.d("Already expanded");
@@ -512,16 +1088,25 @@ public class CircularExpandableVideoView extends GLSurfaceView
 
             if (BuildConfig.DEBUG) LOG.d("Expanding from %s to %s", from, to);
 
-            final ValueAnimator animator = ValueAnimator.ofObject(new VideoExpandEvaluator(), from, to);
+            animationTargetWidth = targetWidth;
+            animationTargetHeight = targetHeight;
+            if (gpuAnimation) beginGpuAnimation(to);
+
+            animator = ValueAnimator.ofObject(new VideoExpandEvaluator(), from, to);
             animator.setDuration(animationDuration)
                     .addListener(new ExpandCollapseListener(false));
             animator.addUpdateListener(this);
-            animator.start();
+        }
 
-            if (!restartOnExpand) return;
+        // the listener calls into the player and the host: not under the renderer lock
+        animator.start();
 
-            player.seekTo(0);
-        }
+        if (restartOnExpand) player.seekTo(0);
+    }
+
+    private void beginGpuAnimation(final AnimationState to) {
+        mRenderer.beginAnimation(to.width, to.height, to.paddingLeft, to.paddingRight, to.paddingBottom, to.paddingTop,
+                to.cropRadius);
     }
 
     @Override
@@ -538,11 +1123,27 @@ public class CircularExpandableVideoView extends GLSurfaceView
             currentBottomPadding = current.paddingBottom;
 
             currentVolume = current.volume;
-            setVolume(currentVolume, currentVolume);
 
-            if (BuildConfig.DEBUG) LOG.d("New size: %dx%d, R: %s", currentWidth, currentHeight, current.cropRadius);
-            mRenderer.updateScale();
+            // a no-op layout-wise unless beginGpuAnimation() set one up; then it only passes the fractions on
+            mRenderer.updateAnimation(current.sizeFraction, current.radiusFraction);
         }
+
+        // a call into the player: keep it out of the renderer lock, and skip steps nobody could hear
+        pushVolume(current.volume, false);
+    }
+
+    /**
+     * Hand <code>volume</code> to the player if it differs audibly from what it was last given during the animation,
+     * or if <code>force</code>d.
+     */
+    private void pushVolume(final float volume, final boolean force) {
+        final float pushed = pushedVolume;
+        if (!force && !Float.isNaN(pushed) && Math.abs(volume - pushed) < AUDIBLE_VOLUME_STEP
+                && (volume != 0f || pushed == 0f))
+            return;
+
+        pushedVolume = volume;
+        setVolume(volume, volume);
     }
 
     public void setVolume (final float leftVolume, final float rightVolume) {
@@ -575,18 +1176,23 @@ public class CircularExpandableVideoView extends GLSurfaceView
     }
 
     public void setSurface(final SurfaceTexture surface) {
-        Surface s = new Surface(surface);
+        final Surface s = new Surface(surface);
         player.setSurface(s);
-        s.release();
+
+        // engines may keep rendering into the surface they were given, so only let go of the previous one
+        final Surface previous;
+        synchronized (this) {
+            previous = videoSurface;
+            videoSurface = s;
+        }
+        if (null != previous) previous.release();
     }
 
     /**
      * Called to indicate the completion of a seek operation.
-     *
-     * @param mp the MediaPlayer that issued the seek operation
      */
     @Override
-    public void onSeekComplete(MediaPlayer mp) {
+    public void onSeekComplete() {
     }
 
     private class GestureListener extends GestureDetector.SimpleOnGestureListener {
@@ -647,77 +1253,6 @@ public class CircularExpandableVideoView extends GLSurfaceView
         UNINITIALIZED, INITIALIZED, PREPARED, PLAY, END
     }
 
-    private static final float SPLIT = 0.65f;
-
-    private static abstract class BaseVideoAnimateEvaluator implements TypeEvaluator<AnimationState> {
-        final IntEvaluator intEvaluator = new IntEvaluator();
-        final FloatEvaluator floatEvaluator = new FloatEvaluator();
-    }
-
-    private static class VideoExpandEvaluator extends BaseVideoAnimateEvaluator {
-
-        private final float radiusChangeThreshold = SPLIT;
-
-        @Override
-        public AnimationState evaluate(float fraction, AnimationState startValue, AnimationState endValue) {
-            final AnimationState values = new AnimationState();
-
-            final float sizeFrac = fraction >= radiusChangeThreshold
-                    ? 1f
-                    : (radiusChangeThreshold * fraction) / radiusChangeThreshold;
-
-            final float radiusFrac = fraction <= radiusChangeThreshold
-                    ? 0f
-                    : (fraction - radiusChangeThreshold) / (1f - radiusChangeThreshold);
-
-            values.width = intEvaluator.evaluate(sizeFrac, startValue.width, endValue.width);
-            values.height = intEvaluator.evaluate(sizeFrac, startValue.height, endValue.height);
-
-            values.cropRadius = floatEvaluator.evaluate(radiusFrac, startValue.cropRadius, endValue.cropRadius);
-
-            values.paddingLeft = intEvaluator.evaluate(fraction, startValue.paddingLeft, endValue.paddingLeft);
-            values.paddingRight = intEvaluator.evaluate(fraction, startValue.paddingRight, endValue.paddingRight);
-            values.paddingTop = intEvaluator.evaluate(fraction, startValue.paddingTop, endValue.paddingTop);
-            values.paddingBottom = intEvaluator.evaluate(fraction, startValue.paddingBottom, endValue.paddingBottom);
-
-            values.volume = floatEvaluator.evaluate(fraction, startValue.volume, endValue.volume);
-
-            return values;
-        }
-    }
-
-    private static class VideoCollapseEvaluator extends BaseVideoAnimateEvaluator {
-
-        private final float sizeChangeThreshold = 1f - SPLIT;
-
-        @Override
-        public AnimationState evaluate(float fraction, AnimationState startValue, AnimationState endValue) {
-            final AnimationState values = new AnimationState();
-
-            final float sizeFrac = fraction <= sizeChangeThreshold
-                    ? 0f
-                    : (fraction - sizeChangeThreshold) / (1f - sizeChangeThreshold);
-
-            final float radiusFrac = fraction >= sizeChangeThreshold
-                    ? 1f
-                    : (sizeChangeThreshold * fraction) / sizeChangeThreshold;
-
-            values.width = intEvaluator.evaluate(sizeFrac, startValue.width, endValue.width);
-            values.height = intEvaluator.evaluate(sizeFrac, startValue.height, endValue.height);
-
-            values.cropRadius = floatEvaluator.evaluate(radiusFrac, startValue.cropRadius, endValue.cropRadius);
-
-            values.paddingLeft = intEvaluator.evaluate(fraction, startValue.paddingLeft, endValue.paddingLeft);
-            values.paddingRight = intEvaluator.evaluate(fraction, startValue.paddingRight, endValue.paddingRight);
-            values.paddingTop = intEvaluator.evaluate(fraction, startValue.paddingTop, endValue.paddingTop);
-            values.paddingBottom = intEvaluator.evaluate(fraction, startValue.paddingBottom, endValue.paddingBottom);
-
-            values.volume = floatEvaluator.evaluate(fraction, startValue.volume, endValue.volume);
-
-            return values;
-        }
-    }
-
     private class ExpandCollapseListener implements Animator.AnimatorListener {
         private final boolean endCollapseValue;
 
@@ -727,59 +1262,78 @@ public class CircularExpandableVideoView extends GLSurfaceView
 
         @Override
         public void onAnimationStart(Animator animation) {
+            final int targetWidth;
+            final int targetHeight;
+            // start() is called outside the renderer lock, so this is too
             synchronized (mRenderer) {
                 animating = true;
+                targetWidth = animationTargetWidth;
+                targetHeight = animationTargetHeight;
             }
+            pushedVolume = Float.NaN;
+
+            // the target doesn't change while animating: start fetching a sharper rendition as soon as the bubble
+            // starts growing, shrinking waits for the end
+            updateRendition(targetWidth, targetHeight, true);
         }
 
         @Override
         public void onAnimationEnd(Animator animation) {
+            // steps too small to push may have been skipped: land on the exact end volume
+            pushVolume(currentVolume, true);
+
+            final boolean ended;
+            final int width;
+            final int height;
             synchronized (mRenderer) {
+                finishGpuAnimation();
                 collapsed = endCollapseValue;
                 animating = false;
 
-                if (null == actionsListener) return;
+                ended = collapsed;
+                width = currentWidth;
+                height = currentHeight;
+            }
+
+            // may swap or attach engines, which can wait for a decoder thread: not under the renderer lock
+            updateRendition(width, height, false);
 
-                if (collapsed) {
-                    actionsListener.onMinimized();
-                } else {
-                    actionsListener.onMaximized();
-                }
+            final VideoSurfaceViewListener listener = actionsListener;
+            if (null == listener) return;
+
+            if (ended) {
+                listener.onMinimized();
+            } else {
+                listener.onMaximized();
             }
         }
 
         @Override
         public void onAnimationCancel(Animator animation) {
             synchronized (mRenderer) {
+                finishGpuAnimation();
                 animating = false;
             }
         }
 
+        /**
+         * Lay the last step out exactly, as the CPU path would have, while still animating.
+         */
+        private void finishGpuAnimation() {
+            mRenderer.endAnimation();
+            if (gpuAnimation) mRenderer.updateScale();
+        }
+
         @Override
         public void onAnimationRepeat(Animator animation) {
 
         }
     }
 
-    @Builder
-    @NoArgsConstructor
-    @AllArgsConstructor
-    @ToString
-    @EqualsAndHashCode
-    private static class AnimationState {
-        int width = 0;
-        int height = 0;
-
-        int paddingLeft = 0;
-        int paddingRight = 0;
-        int paddingBottom = 0;
-        int paddingTop = 0;
-
-        float cropRadius = 0f;
-
-        float volume = 0f;
-    }
-
+    /**
+     * The <code>MediaPlayer</code> passed to the callbacks is <code>null</code> unless the default
+     * {@link MediaPlayerEngine} is in use; see {@link #getPlaybackEngine()}.
+     */
     public interface VideoSurfaceViewListener extends MediaPlayer.OnPreparedListener {
         void onMaximized();
 
@@ -789,4 +1343,24 @@ public class CircularExpandableVideoView extends GLSurfaceView
 
         void onVideoEnd(MediaPlayer mp);
     }
+
+    public interface GlCallListener {
+        /**
+         * Called on the GL thread after each frame is drawn. Frames left on screen unchanged are not reported.
+         *
+         * @param glCalls GL calls issued to clear and draw the video; the downsample and subtitle passes, when they
+         *                run, are not included
+         */
+        void onFrameDrawn(int glCalls);
+    }
+
+    public interface SubtitlesListener {
+        /**
+         * Called on the main thread once the subtitles passed to {@link #setSubtitles(String, Typeface, SubtitlesListener)}
+         * are parsed and attached.
+         *
+         * @param cueCount number of cues found
+         */
+        void onSubtitlesReady(int cueCount);
+    }
 }  // End of class VideoSurfaceView.
\ No newline at end of file
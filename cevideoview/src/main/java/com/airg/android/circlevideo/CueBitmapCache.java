@@ -0,0 +1,239 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Rasterised cue bitmaps keyed by cue index, bounded by a byte budget and evicted least recently used first.
+ * Bitmaps are only ever rasterised on a worker thread: whenever a cue is shown the next few cues are queued (none with
+ * a look-ahead of 0), and a cue that isn't ready when it is asked for is queued too and reported to the
+ * {@link Listener} once it is. Seeking back or looping hits whatever is still within budget.
+ * <p>
+ * The bitmap on screen is pinned: if it gets evicted it is only recycled once it is no longer shown. A bitmap larger
+ * than the whole budget is never cached; it is handed over once and recycled when released.
+ */
+final class CueBitmapCache {
+
+    interface Rasterizer {
+        /**
+         * Called on the worker thread.
+         *
+         * @return the bitmap for <code>cue</code>, or <code>null</code> if it has nothing to draw
+         */
+        Bitmap rasterize(SubtitleCue cue);
+    }
+
+    interface Listener {
+        /**
+         * Called on the worker thread, without the cache locked, when the bitmap for a cue that was asked for before
+         * it was ready can now be acquired.
+         */
+        void onCueReady(int index);
+    }
+
+    // one shared worker: rasterising is bursty and cheap enough that more threads only add contention
+    private static final Executor PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CEVideoView-cue-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final Rasterizer rasterizer;
+    private final Listener listener;
+    private final int maxBytes;
+    private final int lookAhead;
+    private final LruCache<Integer, Bitmap> cache;
+    private final Set<Integer> inFlight = new HashSet<>();
+    // cues asked for before they were ready
+    private final Set<Integer> wanted = new HashSet<>();
+
+    private CueTimeline timeline = CueTimeline.EMPTY;
+    // bumped on timeline changes so prefetches for the old timeline are dropped
+    private int epoch = 0;
+
+    private Bitmap pinned;
+    private boolean pinnedEvicted = false;
+
+    // a bitmap too large to cache, waiting to be acquired
+    private int oversizedIndex = CueTimeline.NO_CUE;
+    private Bitmap oversized;
+
+    CueBitmapCache(final int budgetBytes, final int lookAheadCues, final Rasterizer cueRasterizer,
+                   final Listener cueListener) {
+        rasterizer = cueRasterizer;
+        listener = cueListener;
+        maxBytes = budgetBytes;
+        lookAhead = lookAheadCues;
+
+        cache = new LruCache<Integer, Bitmap>(budgetBytes) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return CueBitmapCache.sizeOf(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue, Bitmap newValue) {
+                onRemoved(oldValue);
+            }
+        };
+    }
+
+    private static int sizeOf(final Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    synchronized void setTimeline(final CueTimeline cues) {
+        discardAll();
+        timeline = null == cues ? CueTimeline.EMPTY : cues;
+
+        // the first cues are ready before playback gets to them
+        prefetch(0, lookAhead - 1);
+    }
+
+    /**
+     * Get the bitmap for cue <code>index</code> and pin it as the bitmap on screen. Also queues the following cues.
+     *
+     * @return <code>null</code> if the cue has nothing to draw or isn't rasterised yet; in the latter case the
+     * {@link Listener} is told when it is
+     */
+    synchronized Bitmap acquire(final int index) {
+        Bitmap bitmap;
+        boolean owned = false;
+
+        if (index == oversizedIndex) {
+            bitmap = oversized;
+            oversized = null;
+            oversizedIndex = CueTimeline.NO_CUE;
+            owned = true;
+        } else {
+            bitmap = cache.get(index);
+        }
+
+        pinned = bitmap;
+        pinnedEvicted = owned;
+
+        if (null == bitmap) {
+            wanted.add(index);
+            prefetch(index, index);
+        }
+
+        prefetch(index + 1, index + lookAhead);
+
+        return bitmap;
+    }
+
+    /**
+     * The bitmap returned by {@link #acquire(int)} is no longer on screen.
+     */
+    synchronized void release(final Bitmap bitmap) {
+        if (null == bitmap || bitmap != pinned) return;
+
+        if (pinnedEvicted) bitmap.recycle();
+
+        pinned = null;
+        pinnedEvicted = false;
+    }
+
+    synchronized void clear() {
+        discardAll();
+    }
+
+    private void discardAll() {
+        epoch++;
+        inFlight.clear();
+        wanted.clear();
+        cache.evictAll();
+
+        if (null != oversized) oversized.recycle();
+        oversized = null;
+        oversizedIndex = CueTimeline.NO_CUE;
+    }
+
+    private void prefetch(final int first, final int last) {
+        final int end = Math.min(timeline.size() - 1, last);
+
+        for (int i = Math.max(0, first); i <= end; i++) {
+            if (null != cache.get(i) || i == oversizedIndex || !inFlight.add(i)) continue;
+
+            final int cueIndex = i;
+            final int cueEpoch = epoch;
+            final SubtitleCue cue = timeline.get(i);
+
+            PREFETCH_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (CueBitmapCache.this) {
+                        if (cueEpoch != epoch) return;
+                    }
+
+                    final Bitmap bitmap = rasterizer.rasterize(cue);
+
+                    if (store(cueEpoch, cueIndex, bitmap)) listener.onCueReady(cueIndex);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the bitmap was stored for a cue that was asked for before it was ready
+     */
+    private synchronized boolean store(final int cueEpoch, final int index, final Bitmap bitmap) {
+        if (cueEpoch != epoch || !inFlight.remove(index)) {
+            if (null != bitmap) bitmap.recycle();
+            return false;
+        }
+
+        final boolean waitedFor = wanted.remove(index);
+        if (null == bitmap) return false;
+
+        if (sizeOf(bitmap) > maxBytes) {
+            // LruCache would evict and recycle it straight away
+            if (null != oversized) oversized.recycle();
+            oversized = bitmap;
+            oversizedIndex = index;
+        } else if (null == cache.get(index)) {
+            cache.put(index, bitmap);
+        } else {
+            bitmap.recycle();
+        }
+
+        return waitedFor;
+    }
+
+    private synchronized void onRemoved(final Bitmap bitmap) {
+        if (bitmap == pinned) {
+            pinnedEvicted = true;
+            return;
+        }
+
+        bitmap.recycle();
+    }
+}
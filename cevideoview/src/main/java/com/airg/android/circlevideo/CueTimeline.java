@@ -0,0 +1,108 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable table of cues sorted by start time, indexed for lookup by playback position.
+ * <p>
+ * Besides the sorted start times we keep, for every index, the latest end time of all cues up to and including it.
+ * That lets a lookup walk back from the last cue that started before the position and stop as soon as no earlier
+ * cue can still be showing, so overlapping cues are handled without scanning the whole table.
+ */
+final class CueTimeline {
+
+    static final int NO_CUE = -1;
+
+    static final CueTimeline EMPTY = new CueTimeline(Collections.<SubtitleCue>emptyList());
+
+    private static final Comparator<SubtitleCue> BY_START = new Comparator<SubtitleCue>() {
+        @Override
+        public int compare(SubtitleCue a, SubtitleCue b) {
+            return a.startMs < b.startMs ? -1 : (a.startMs == b.startMs ? 0 : 1);
+        }
+    };
+
+    private final SubtitleCue[] cues;
+    private final long[] starts;
+    private final long[] maxEnds;
+
+    CueTimeline(final List<SubtitleCue> unsorted) {
+        final List<SubtitleCue> sorted = new ArrayList<>(unsorted);
+        // stable sort: cues with the same start keep file order
+        Collections.sort(sorted, BY_START);
+
+        cues = sorted.toArray(new SubtitleCue[sorted.size()]);
+        starts = new long[cues.length];
+        maxEnds = new long[cues.length];
+
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < cues.length; i++) {
+            starts[i] = cues[i].startMs;
+            maxEnd = Math.max(maxEnd, cues[i].endMs);
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    int size() {
+        return cues.length;
+    }
+
+    boolean isEmpty() {
+        return cues.length == 0;
+    }
+
+    SubtitleCue get(final int index) {
+        return cues[index];
+    }
+
+    /**
+     * @param positionMs playback position
+     * @return index of the latest-starting cue showing at <code>positionMs</code>, or {@link #NO_CUE}
+     */
+    int indexAt(final long positionMs) {
+        for (int i = lastStartingAtOrBefore(positionMs); i >= 0 && maxEnds[i] > positionMs; i--) {
+            if (cues[i].isActiveAt(positionMs)) return i;
+        }
+
+        return NO_CUE;
+    }
+
+    private int lastStartingAtOrBefore(final long positionMs) {
+        int lo = 0;
+        int hi = starts.length - 1;
+        int found = -1;
+
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= positionMs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return found;
+    }
+}
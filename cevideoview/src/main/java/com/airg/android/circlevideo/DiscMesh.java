@@ -0,0 +1,124 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Geometry covering just the circular crop instead of the whole video quad: a fan inscribed in the fully opaque part
+ * of the circle, drawn without blending, and a strip around it covering the anti-aliased edge. Fragments outside the
+ * circle are never shaded.
+ * <p>
+ * Vertices are texture coordinates of the video quad, like the quad's own, so the masked vertex shader places them
+ * wherever the quad is. The mesh only changes with the crop.
+ */
+final class DiscMesh {
+    static final int SEGMENTS = 64;
+
+    static final int FAN_FIRST = 0;
+    static final int FAN_COUNT = SEGMENTS + 2;
+    static final int RING_FIRST = FAN_COUNT;
+    static final int RING_COUNT = 2 * (SEGMENTS + 1);
+
+    static final int STRIDE = 2;
+    static final int SIZE_BYTES = (FAN_COUNT + RING_COUNT) * STRIDE * 4;
+
+    private static final int FLOAT_SIZE_BYTES = 4;
+    // the circumscribed polygon has to reach this far out for its edges to clear the circle
+    private static final float OUTER_SCALE = (float) (1.0 / Math.cos(Math.PI / SEGMENTS));
+
+    private static final float[] COS = new float[SEGMENTS + 1];
+    private static final float[] SIN = new float[SEGMENTS + 1];
+
+    static {
+        for (int i = 0; i <= SEGMENTS; i++) {
+            final double angle = 2.0 * Math.PI * i / SEGMENTS;
+            COS[i] = (float) Math.cos(angle);
+            SIN[i] = (float) Math.sin(angle);
+        }
+    }
+
+    private final float[] data = new float[(FAN_COUNT + RING_COUNT) * STRIDE];
+    private final FloatBuffer vertices = ByteBuffer.allocateDirect(data.length * FLOAT_SIZE_BYTES)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    private float radius = Float.NaN;
+    private float aspectRatio;
+    private float edge;
+    private boolean fits = false;
+    private int version = 0;
+
+    FloatBuffer vertices() {
+        return vertices;
+    }
+
+    /**
+     * @return changes whenever {@link #vertices()} does
+     */
+    int version() {
+        return version;
+    }
+
+    /**
+     * Rebuild the mesh for a circle of <code>cropRadius</code> with an anti-aliased edge <code>edgeWidth</code> wide,
+     * both in the units of the masked fragment shader.
+     *
+     * @return <code>false</code> if the circle reaches past the quad, in which case the quad has to be drawn instead
+     */
+    boolean update(final float cropRadius, final float aspect, final float edgeWidth) {
+        if (cropRadius == radius && aspect == aspectRatio && edgeWidth == edge)
+            return fits;
+
+        radius = cropRadius;
+        aspectRatio = aspect;
+        edge = edgeWidth;
+
+        // the shader stretches the shorter texture axis so the circle is round on screen
+        final float scaleU = aspect > 1f ? 1f / aspect : 1f;
+        final float scaleV = aspect < 1f ? aspect : 1f;
+        final float inner = cropRadius - Math.max(0f, edgeWidth);
+
+        // the ring may poke out of the quad where the circle touches it: those fragments are fully transparent
+        fits = inner > 0f && cropRadius * scaleU <= 0.5f && cropRadius * scaleV <= 0.5f;
+        if (!fits) return false;
+
+        int offset = put(0, 0.5f, 0.5f);
+        for (int i = 0; i <= SEGMENTS; i++)
+            offset = put(offset, 0.5f + COS[i] * inner * scaleU, 0.5f + SIN[i] * inner * scaleV);
+
+        final float outer = cropRadius * OUTER_SCALE;
+        for (int i = 0; i <= SEGMENTS; i++) {
+            offset = put(offset, 0.5f + COS[i] * inner * scaleU, 0.5f + SIN[i] * inner * scaleV);
+            offset = put(offset, 0.5f + COS[i] * outer * scaleU, 0.5f + SIN[i] * outer * scaleV);
+        }
+
+        vertices.clear();
+        vertices.put(data).position(0);
+        version++;
+        return true;
+    }
+
+    private int put(final int offset, final float u, final float v) {
+        data[offset] = u;
+        data[offset + 1] = v;
+        return offset + STRIDE;
+    }
+}
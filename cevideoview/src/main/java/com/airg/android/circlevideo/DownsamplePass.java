@@ -0,0 +1,202 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.opengl.GLES20;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Shrinks the external video texture into a mipmapped <code>GL_TEXTURE_2D</code> about the size the video is shown
+ * at, so a small bubble samples a small texture instead of a full resolution frame. Run once per video frame; the
+ * circular mask pass then samples {@link #texture()} with trilinear filtering.
+ * <p>
+ * The target is rounded up to a power of two since OpenGL ES 2 only mipmaps those. The video transform is applied
+ * here, so the result is sampled with plain <code>[0, 1]</code> texture coordinates. All methods must be called on
+ * the GL thread.
+ */
+final class DownsamplePass {
+    private static final TaggedLogger LOG = Logger.tag("CEDownsample");
+
+    private static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+    private static final int MAX_SIZE = 2048;
+
+    private static final int FLOAT_SIZE_BYTES = 4;
+    private static final int STRIDE_BYTES = 4 * FLOAT_SIZE_BYTES;
+
+    private static final float[] QUAD = {
+            // X, Y, U, V
+            -1f, -1f, 0f, 0f,
+            1f, -1f, 1f, 0f,
+            -1f, 1f, 0f, 1f,
+            1f, 1f, 1f, 1f,
+    };
+
+    private final FloatBuffer quad = ByteBuffer.allocateDirect(QUAD.length * FLOAT_SIZE_BYTES)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    private final int program;
+    private final int aPositionHandle;
+    private final int aTextureCoordHandle;
+    private final int uSTMatrixHandle;
+    private final int uTexelOffsetHandle;
+
+    private final int[] names = new int[1];
+    private int framebuffer = 0;
+    private int texture = 0;
+    private int width = 0;
+    private int height = 0;
+
+    /**
+     * @param downsampleProgram linked from the downsample shaders
+     */
+    DownsamplePass(final int downsampleProgram) {
+        program = downsampleProgram;
+        aPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        aTextureCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        uSTMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+        uTexelOffsetHandle = GLES20.glGetUniformLocation(program, "uTexelOffset");
+
+        quad.put(QUAD).position(0);
+
+        GLES20.glGenFramebuffers(1, names, 0);
+        framebuffer = names[0];
+    }
+
+    private static int nextPowerOfTwo(final int value) {
+        int pot = 1;
+        while (pot < value) pot <<= 1;
+        return pot;
+    }
+
+    int texture() {
+        return texture;
+    }
+
+    /**
+     * Make the target big enough for a video shown at <code>displayWidth</code> x <code>displayHeight</code>.
+     *
+     * @return <code>false</code> if the target can't be rendered to
+     */
+    boolean resize(final int displayWidth, final int displayHeight) {
+        final int w = Math.min(MAX_SIZE, nextPowerOfTwo(Math.max(1, displayWidth)));
+        final int h = Math.min(MAX_SIZE, nextPowerOfTwo(Math.max(1, displayHeight)));
+        if (w == width && h == height && texture != 0) return true;
+
+        if (texture != 0) {
+            names[0] = texture;
+            GLES20.glDeleteTextures(1, names, 0);
+        }
+
+        GLES20.glGenTextures(1, names, 0);
+        texture = names[0];
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, w, h, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, null);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                texture, 0);
+        final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        width = w;
+        height = h;
+
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            LOG.e("Downsample target %dx%d incomplete: 0x%x", w, h, status);
+            return false;
+        }
+
+        if (BuildConfig.DEBUG) LOG.d("Downsample target %dx%d", w, h);
+        return true;
+    }
+
+    /**
+     * Draw the current video frame into the target and rebuild its mipmaps. Leaves the default framebuffer bound
+     * with a <code>surfaceWidth</code> x <code>surfaceHeight</code> viewport.
+     */
+    void render(final int externalTexture, final float[] stMatrix, final int surfaceWidth, final int surfaceHeight) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glDisable(GLES20.GL_BLEND);
+
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, externalTexture);
+
+        GLES20.glUniformMatrix4fv(uSTMatrixHandle, 1, false, stMatrix, 0);
+        GLES20.glUniform2f(uTexelOffsetHandle, 0.25f / width, 0.25f / height);
+
+        quad.position(0);
+        GLES20.glVertexAttribPointer(aPositionHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, quad);
+        GLES20.glEnableVertexAttribArray(aPositionHandle);
+        quad.position(2);
+        GLES20.glVertexAttribPointer(aTextureCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, quad);
+        GLES20.glEnableVertexAttribArray(aTextureCoordHandle);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        GLES20.glDisableVertexAttribArray(aPositionHandle);
+        GLES20.glDisableVertexAttribArray(aTextureCoordHandle);
+        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
+        GLES20.glUseProgram(0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+    }
+
+    /**
+     * Delete the copy, its framebuffer and the program. Must be called on the GL thread, with the context they were
+     * created in current.
+     */
+    void release() {
+        GLES20.glDeleteProgram(program);
+
+        if (texture != 0) {
+            names[0] = texture;
+            GLES20.glDeleteTextures(1, names, 0);
+            texture = 0;
+        }
+
+        if (framebuffer != 0) {
+            names[0] = framebuffer;
+            GLES20.glDeleteFramebuffers(1, names, 0);
+            framebuffer = 0;
+        }
+
+        width = 0;
+        height = 0;
+    }
+}
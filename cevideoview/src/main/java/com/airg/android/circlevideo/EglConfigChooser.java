@@ -0,0 +1,100 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.opengl.GLSurfaceView;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * Picks an RGBA8888 OpenGL ES 2 window config, like the stock GLSurfaceView chooser, optionally preferring one whose
+ * window surfaces can keep their contents across eglSwapBuffers.
+ */
+final class EglConfigChooser implements GLSurfaceView.EGLConfigChooser {
+
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+    private static final int EGL_SWAP_BEHAVIOR_PRESERVED_BIT = 0x0400;
+
+    private final int depthSize;
+    private final boolean preferPreservedSwap;
+
+    /**
+     * @param depth          minimum depth buffer size in bits
+     * @param preservedSwap  prefer configs that support <code>EGL_BUFFER_PRESERVED</code>
+     */
+    EglConfigChooser(final int depth, final boolean preservedSwap) {
+        depthSize = depth;
+        preferPreservedSwap = preservedSwap;
+    }
+
+    @Override
+    public EGLConfig chooseConfig(final EGL10 egl, final EGLDisplay display) {
+        EGLConfig config = null;
+
+        if (preferPreservedSwap)
+            config = choose(egl, display, EGL10.EGL_WINDOW_BIT | EGL_SWAP_BEHAVIOR_PRESERVED_BIT);
+
+        if (null == config)
+            config = choose(egl, display, EGL10.EGL_WINDOW_BIT);
+
+        if (null == config)
+            throw new IllegalArgumentException("No config chosen");
+
+        return config;
+    }
+
+    private EGLConfig choose(final EGL10 egl, final EGLDisplay display, final int surfaceType) {
+        final int[] attributes = {
+                EGL10.EGL_RED_SIZE, 8,
+                EGL10.EGL_GREEN_SIZE, 8,
+                EGL10.EGL_BLUE_SIZE, 8,
+                EGL10.EGL_ALPHA_SIZE, 8,
+                EGL10.EGL_DEPTH_SIZE, depthSize,
+                EGL10.EGL_STENCIL_SIZE, 0,
+                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_SURFACE_TYPE, surfaceType,
+                EGL10.EGL_NONE
+        };
+
+        final int[] count = new int[1];
+        if (!egl.eglChooseConfig(display, attributes, null, 0, count) || count[0] <= 0) return null;
+
+        final EGLConfig[] configs = new EGLConfig[count[0]];
+        if (!egl.eglChooseConfig(display, attributes, configs, configs.length, count)) return null;
+
+        // eglChooseConfig sorts deeper colour buffers first: insist on exactly 8 bits per channel
+        final int[] value = new int[1];
+        for (final EGLConfig config : configs) {
+            if (size(egl, display, config, EGL10.EGL_RED_SIZE, value) == 8
+                    && size(egl, display, config, EGL10.EGL_GREEN_SIZE, value) == 8
+                    && size(egl, display, config, EGL10.EGL_BLUE_SIZE, value) == 8
+                    && size(egl, display, config, EGL10.EGL_ALPHA_SIZE, value) == 8)
+                return config;
+        }
+
+        return null;
+    }
+
+    private static int size(final EGL10 egl, final EGLDisplay display, final EGLConfig config, final int attribute,
+                            final int[] value) {
+        return egl.eglGetConfigAttrib(display, config, attribute, value) ? value[0] : 0;
+    }
+}
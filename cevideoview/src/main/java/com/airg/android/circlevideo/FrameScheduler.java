@@ -0,0 +1,165 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+/**
+ * Decides what to do with each decoded frame: render it, hold it until its presentation time, or drop it because it
+ * is too late to be worth showing. Media time is mapped to clock time from the first frame after every
+ * {@link #reanchor()}, so pauses, seeks and decoder restarts don't count as lateness.
+ * <p>
+ * Also tracks how many input buffers the decoder is holding. Used from a single decoder thread; the counters can be
+ * read from any thread. Has no Android dependencies and takes its time from a {@link Clock}, so it can be driven by a
+ * synthetic clock on the JVM.
+ */
+final class FrameScheduler {
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    enum Decision {
+        RENDER, DROP, WAIT
+    }
+
+    // frames due this soon are released now: the display only picks them up at the next vsync anyway
+    static final long EARLY_TOLERANCE_NANOS = 2000000L;
+    static final long DEFAULT_LATE_THRESHOLD_NANOS = 40000000L;
+    // a decoder that can't keep up must still show something: after this many drops in a row we render and re-anchor
+    static final int MAX_CONSECUTIVE_DROPS = 8;
+
+    private final Clock clock;
+    private final long lateThresholdNanos;
+
+    private boolean anchored = false;
+    private long anchorPtsUs;
+    private long anchorNanos;
+    private long waitNanos = 0L;
+    private int consecutiveDrops = 0;
+
+    private volatile int queueDepth = 0;
+    private volatile long renderedFrames = 0L;
+    private volatile long droppedFrames = 0L;
+
+    FrameScheduler(final Clock frameClock, final long lateThreshold) {
+        clock = frameClock;
+        lateThresholdNanos = lateThreshold;
+    }
+
+    FrameScheduler() {
+        this(SYSTEM_CLOCK, DEFAULT_LATE_THRESHOLD_NANOS);
+    }
+
+    /**
+     * @param ptsUs presentation time of the frame at the head of the decoder output
+     * @return what to do with it. On {@link Decision#WAIT} keep the frame, wait {@link #waitNanos()} and ask again.
+     */
+    Decision decide(final long ptsUs) {
+        final long now = clock.nanoTime();
+
+        if (!anchored) {
+            anchor(ptsUs, now);
+            return render();
+        }
+
+        final long early = anchorNanos + (ptsUs - anchorPtsUs) * 1000L - now;
+
+        if (early > EARLY_TOLERANCE_NANOS) {
+            waitNanos = early;
+            return Decision.WAIT;
+        }
+
+        if (-early > lateThresholdNanos) {
+            if (++consecutiveDrops < MAX_CONSECUTIVE_DROPS) {
+                droppedFrames++;
+                return Decision.DROP;
+            }
+
+            // fall this far behind and playback slows down rather than freezing
+            anchor(ptsUs, now);
+        }
+
+        return render();
+    }
+
+    private void anchor(final long ptsUs, final long now) {
+        anchored = true;
+        anchorPtsUs = ptsUs;
+        anchorNanos = now;
+    }
+
+    private Decision render() {
+        consecutiveDrops = 0;
+        renderedFrames++;
+        return Decision.RENDER;
+    }
+
+    /**
+     * @return how long the frame last answered with {@link Decision#WAIT} should be held
+     */
+    long waitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * The next frame is shown immediately and becomes the new reference point. Call after pausing, seeking or
+     * restarting the decoder.
+     */
+    void reanchor() {
+        anchored = false;
+        consecutiveDrops = 0;
+    }
+
+    void onInputQueued() {
+        queueDepth++;
+    }
+
+    void onOutputDequeued() {
+        if (queueDepth > 0) queueDepth--;
+    }
+
+    /**
+     * The decoder dropped everything it held.
+     */
+    void onFlush() {
+        queueDepth = 0;
+        reanchor();
+    }
+
+    /**
+     * @return input buffers queued to the decoder that haven't come out yet
+     */
+    int queueDepth() {
+        return queueDepth;
+    }
+
+    long renderedFrames() {
+        return renderedFrames;
+    }
+
+    long droppedFrames() {
+        return droppedFrames;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import java.util.Locale;
+
+/**
+ * Histogram of frame times with 1ms buckets. Anything at or above {@link #BUCKETS} ms lands in the last bucket.
+ */
+public final class FrameTimeHistogram {
+
+    public static final int BUCKETS = 33;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    synchronized void record(final long frameNanos) {
+        if (frameNanos < 0) return;
+
+        final int bucket = (int) Math.min(BUCKETS - 1, frameNanos / NANOS_PER_MILLI);
+        buckets[bucket]++;
+        count++;
+        totalNanos += frameNanos;
+        maxNanos = Math.max(maxNanos, frameNanos);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = 0;
+
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @param millis bucket index (frame time in whole milliseconds)
+     * @return number of frames in that bucket
+     */
+    public synchronized long bucket(final int millis) {
+        return buckets[Math.min(BUCKETS - 1, millis)];
+    }
+
+    public synchronized float meanMillis() {
+        return count == 0 ? 0f : (float) totalNanos / count / NANOS_PER_MILLI;
+    }
+
+    public synchronized float maxMillis() {
+        return (float) maxNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return upper bound, in ms, of the bucket containing the requested percentile
+     */
+    public synchronized int percentileMillis(final float percentile) {
+        if (!Helper.checkRage(percentile, 0f, 100f))
+            throw new IllegalArgumentException("Invalid percentile (valid: 0-100): " + percentile);
+
+        if (count == 0) return 0;
+
+        final long target = (long) Math.ceil(count * percentile / 100f);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= target && seen > 0) return i + 1;
+        }
+
+        return BUCKETS;
+    }
+
+    /**
+     * @param budgetMillis frame budget, usually 16 for a 60Hz display
+     * @return number of frames that took at least <code>budgetMillis</code>
+     */
+    public synchronized long framesOver(final int budgetMillis) {
+        long over = 0;
+        for (int i = Math.max(0, Math.min(BUCKETS - 1, budgetMillis)); i < BUCKETS; i++)
+            over += buckets[i];
+        return over;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "frames: %d, mean: %.2fms, p50: %dms, p90: %dms, p99: %dms, max: %.2fms",
+                count, meanMillis(), percentileMillis(50f), percentileMillis(90f), percentileMillis(99f), maxMillis());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.opengl.GLES20;
+
+/**
+ * Remembers the bits of context state the video pass sets every frame and only issues a call when the value changes,
+ * and counts the GL calls made so they can be reported per frame.
+ * <p>
+ * Only sees calls made through it: call {@link #reset()} after code that changes the same state directly, such as the
+ * downsample pass or the subtitles. Context state, so one per GL thread, reset on a new context.
+ */
+final class GlStateTracker {
+    private static final int UNKNOWN = -1;
+
+    private int program = UNKNOWN;
+    private int arrayBuffer = UNKNOWN;
+    private int blend = UNKNOWN;
+    private int scissorTest = UNKNOWN;
+    private int blendSource = UNKNOWN;
+    private int blendDestination = UNKNOWN;
+    private boolean clearColorSet = false;
+    private float clearRed;
+    private float clearGreen;
+    private float clearBlue;
+    private float clearAlpha;
+
+    private int calls = 0;
+
+    /**
+     * Forget everything: the next call of each kind is issued.
+     */
+    void reset() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        blend = UNKNOWN;
+        scissorTest = UNKNOWN;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        clearColorSet = false;
+    }
+
+    void useProgram(final int name) {
+        if (program == name) return;
+        GLES20.glUseProgram(name);
+        program = name;
+        calls++;
+    }
+
+    /**
+     * Record that <code>name</code> was made current without going through this tracker.
+     */
+    void assumeProgram(final int name) {
+        program = name;
+    }
+
+    void bindArrayBuffer(final int name) {
+        if (arrayBuffer == name) return;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, name);
+        arrayBuffer = name;
+        calls++;
+    }
+
+    void setBlend(final boolean enabled) {
+        blend = setCapability(GLES20.GL_BLEND, blend, enabled);
+    }
+
+    void setScissorTest(final boolean enabled) {
+        scissorTest = setCapability(GLES20.GL_SCISSOR_TEST, scissorTest, enabled);
+    }
+
+    private int setCapability(final int capability, final int current, final boolean enabled) {
+        final int wanted = enabled ? 1 : 0;
+        if (current == wanted) return current;
+
+        if (enabled) GLES20.glEnable(capability);
+        else GLES20.glDisable(capability);
+        calls++;
+        return wanted;
+    }
+
+    void blendFunc(final int source, final int destination) {
+        if (blendSource == source && blendDestination == destination) return;
+        GLES20.glBlendFunc(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        calls++;
+    }
+
+    void clearColor(final float red, final float green, final float blue, final float alpha) {
+        if (clearColorSet && clearRed == red && clearGreen == green && clearBlue == blue && clearAlpha == alpha)
+            return;
+
+        GLES20.glClearColor(red, green, blue, alpha);
+        clearColorSet = true;
+        clearRed = red;
+        clearGreen = green;
+        clearBlue = blue;
+        clearAlpha = alpha;
+        calls++;
+    }
+
+    /**
+     * Account for <code>count</code> calls made directly.
+     */
+    void count(final int count) {
+        calls += count;
+    }
+
+    /**
+     * @return calls made since the last time this was called
+     */
+    int takeCallCount() {
+        final int count = calls;
+        calls = 0;
+        return count;
+    }
+}
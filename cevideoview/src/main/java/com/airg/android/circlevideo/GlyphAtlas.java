@@ -0,0 +1,150 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.util.SparseArray;
+
+/**
+ * Glyphs of one typeface and size, rasterised once into a single alpha-only bitmap that backs a GL texture.
+ * Printable ASCII is rasterised up front, anything else the first time a cue uses it.
+ * <p>
+ * Glyphs are drawn one at a time with no shaping, so scripts that need it (right-to-left and Indic scripts, or
+ * characters outside the BMP) are reported as unavailable and the caller should fall back to rasterising the whole cue.
+ */
+final class GlyphAtlas implements GlyphLayout.GlyphSource {
+
+    private static final int MAX_SIZE = 2048;
+    private static final int PADDING = 2;
+
+    private final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final SparseArray<GlyphLayout.Glyph> glyphs = new SparseArray<>();
+    private final char[] scratch = new char[1];
+
+    private final Bitmap bitmap;
+    private final Canvas canvas;
+    private final int size;
+    private final float ascent;
+    private final float lineHeight;
+
+    private int cursorX = 0;
+    private int cursorY = 0;
+    private boolean full = false;
+
+    // bumped whenever a glyph is added so the GL side knows to re-upload
+    private int generation = 0;
+
+    GlyphAtlas(final Typeface typeface, final float textSizePx) {
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSizePx);
+        paint.setColor(Color.WHITE);
+
+        final Paint.FontMetrics metrics = paint.getFontMetrics();
+        ascent = metrics.ascent;
+        lineHeight = (float) Math.ceil(metrics.descent - metrics.ascent);
+
+        // room for roughly 256 glyphs of average width
+        size = Math.min(MAX_SIZE, nextPowerOfTwo((int) Math.ceil(16f * (lineHeight + 2 * PADDING))));
+
+        bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+        canvas = new Canvas(bitmap);
+
+        for (char c = ' '; c <= '~'; c++)
+            add(c);
+    }
+
+    private static int nextPowerOfTwo(final int value) {
+        int pot = 1;
+        while (pot < value) pot <<= 1;
+        return pot;
+    }
+
+    Bitmap bitmap() {
+        return bitmap;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    @Override
+    public float lineHeight() {
+        return lineHeight;
+    }
+
+    @Override
+    public GlyphLayout.Glyph glyph(final char c) {
+        final GlyphLayout.Glyph g = glyphs.get(c);
+        if (null != g) return g;
+        return add(c);
+    }
+
+    private GlyphLayout.Glyph add(final char c) {
+        if (full || !drawable(c)) return null;
+
+        scratch[0] = c;
+        final float advance = paint.measureText(scratch, 0, 1);
+
+        if (Character.isWhitespace(c)) {
+            final GlyphLayout.Glyph space = new GlyphLayout.Glyph(advance, 0f, 0f, 0f, 0f, 0f, 0f, 0f, 0f);
+            glyphs.put(c, space);
+            return space;
+        }
+
+        final int cellWidth = (int) Math.ceil(advance) + 2 * PADDING;
+        final int cellHeight = (int) lineHeight + 2 * PADDING;
+
+        if (cursorX + cellWidth > size) {
+            cursorX = 0;
+            cursorY += cellHeight;
+        }
+
+        if (cursorY + cellHeight > size || cellWidth > size) {
+            full = true;
+            return null;
+        }
+
+        canvas.drawText(scratch, 0, 1, cursorX + PADDING, cursorY + PADDING - ascent, paint);
+
+        // the cell's padding sits left of and above the pen position and the line top
+        final GlyphLayout.Glyph glyph = new GlyphLayout.Glyph(advance, -PADDING, -PADDING, cellWidth, cellHeight,
+                (float) cursorX / size, (float) cursorY / size,
+                (float) (cursorX + cellWidth) / size, (float) (cursorY + cellHeight) / size);
+        cursorX += cellWidth;
+        generation++;
+
+        glyphs.put(c, glyph);
+        return glyph;
+    }
+
+    private static boolean drawable(final char c) {
+        if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c) || Character.isISOControl(c)) return false;
+        // Hebrew through the Indic and South East Asian blocks need bidi or shaping
+        return c < 0x0590 || c > 0x1DFF;
+    }
+
+    void recycle() {
+        bitmap.recycle();
+    }
+}
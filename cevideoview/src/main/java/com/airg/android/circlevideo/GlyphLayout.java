@@ -0,0 +1,237 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+/**
+ * Lays out a cue as a batch of textured quads, one per glyph, using glyphs from a {@link GlyphSource}. Lines are
+ * word-wrapped to a maximum width and centred, matching what the per-cue StaticLayout does.
+ * <p>
+ * Output coordinates use the same space as a subtitle bitmap: origin at the centre of the text block, y growing
+ * downwards, so the subtitle MVP matrix applies unchanged. Each vertex is <code>x, y, u, v</code>; glyphs are drawn
+ * as two triangles. The vertex array is reused between layouts and only grows.
+ * <p>
+ * Has no Android dependencies so it can be exercised on the JVM.
+ */
+final class GlyphLayout {
+
+    static final int FLOATS_PER_VERTEX = 4;
+    static final int VERTICES_PER_GLYPH = 6;
+    static final int FLOATS_PER_GLYPH = FLOATS_PER_VERTEX * VERTICES_PER_GLYPH;
+
+    static final class Glyph {
+        final float advance;
+        // quad relative to the pen position and the top of the line
+        final float left;
+        final float top;
+        final float width;
+        final float height;
+        // atlas texture coordinates
+        final float u0;
+        final float v0;
+        final float u1;
+        final float v1;
+
+        Glyph(float advance, float left, float top, float width, float height, float u0, float v0, float u1, float v1) {
+            this.advance = advance;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.u0 = u0;
+            this.v0 = v0;
+            this.u1 = u1;
+            this.v1 = v1;
+        }
+    }
+
+    interface GlyphSource {
+        /**
+         * @return the glyph for <code>c</code>, or <code>null</code> if it can't be drawn from this source
+         */
+        Glyph glyph(char c);
+
+        float lineHeight();
+    }
+
+    private float[] vertices = new float[FLOATS_PER_GLYPH * 64];
+    // pairs of [start, end) character offsets, one pair per line
+    private int[] lines = new int[16];
+    private int lineCount = 0;
+    private int glyphCount = 0;
+    private float width = 0f;
+    private float height = 0f;
+
+    float[] vertices() {
+        return vertices;
+    }
+
+    int glyphCount() {
+        return glyphCount;
+    }
+
+    int vertexCount() {
+        return glyphCount * VERTICES_PER_GLYPH;
+    }
+
+    float width() {
+        return width;
+    }
+
+    float height() {
+        return height;
+    }
+
+    /**
+     * @return <code>false</code> if a character has no glyph in <code>source</code>; the layout is then empty
+     */
+    boolean layout(final CharSequence text, final GlyphSource source, final float maxWidth) {
+        glyphCount = 0;
+        lineCount = 0;
+        width = maxWidth;
+        height = 0f;
+
+        if (!breakLines(text, source, maxWidth)) {
+            lineCount = 0;
+            return false;
+        }
+
+        final float lineHeight = source.lineHeight();
+        height = lineCount * lineHeight;
+
+        for (int l = 0; l < lineCount; l++) {
+            final int start = lines[2 * l];
+            final int end = trimEnd(text, start, lines[2 * l + 1]);
+
+            float pen = -measure(text, start, end, source) / 2f;
+            final float top = -height / 2f + l * lineHeight;
+
+            for (int i = start; i < end; i++) {
+                final Glyph g = source.glyph(text.charAt(i));
+                if (g.width > 0f) emit(g, pen, top);
+                pen += g.advance;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean breakLines(final CharSequence text, final GlyphSource source, final float maxWidth) {
+        final int length = text.length();
+        int lineStart = 0;
+        float lineWidth = 0f;
+        // last offset after which the current line may be broken (just past a space), or -1
+        int breakAt = -1;
+        float widthAtBreak = 0f;
+
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+
+            if (c == '\n') {
+                addLine(lineStart, i);
+                lineStart = i + 1;
+                lineWidth = 0f;
+                breakAt = -1;
+                continue;
+            }
+
+            final Glyph g = source.glyph(c);
+            if (null == g) return false;
+
+            if (c != ' ' && lineWidth + g.advance > maxWidth && i > lineStart) {
+                if (breakAt > lineStart) {
+                    addLine(lineStart, breakAt);
+                    lineStart = breakAt;
+                    lineWidth -= widthAtBreak;
+                } else {
+                    // a single word wider than the line: break it where it overflows
+                    addLine(lineStart, i);
+                    lineStart = i;
+                    lineWidth = 0f;
+                }
+                breakAt = -1;
+            }
+
+            lineWidth += g.advance;
+
+            if (c == ' ') {
+                breakAt = i + 1;
+                widthAtBreak = lineWidth;
+            }
+        }
+
+        addLine(lineStart, length);
+        return true;
+    }
+
+    private void addLine(final int start, final int end) {
+        if (2 * lineCount + 2 > lines.length) {
+            final int[] grown = new int[lines.length * 2];
+            System.arraycopy(lines, 0, grown, 0, lines.length);
+            lines = grown;
+        }
+
+        lines[2 * lineCount] = start;
+        lines[2 * lineCount + 1] = end;
+        lineCount++;
+    }
+
+    private static int trimEnd(final CharSequence text, final int start, int end) {
+        while (end > start && text.charAt(end - 1) == ' ') end--;
+        return end;
+    }
+
+    private static float measure(final CharSequence text, final int start, final int end, final GlyphSource source) {
+        float w = 0f;
+        for (int i = start; i < end; i++)
+            w += source.glyph(text.charAt(i)).advance;
+        return w;
+    }
+
+    private void emit(final Glyph g, final float pen, final float top) {
+        final int needed = (glyphCount + 1) * FLOATS_PER_GLYPH;
+        if (needed > vertices.length) {
+            final float[] grown = new float[Math.max(needed, vertices.length * 2)];
+            System.arraycopy(vertices, 0, grown, 0, glyphCount * FLOATS_PER_GLYPH);
+            vertices = grown;
+        }
+
+        final float x0 = pen + g.left;
+        final float x1 = x0 + g.width;
+        final float y0 = top + g.top;
+        final float y1 = y0 + g.height;
+
+        int i = glyphCount * FLOATS_PER_GLYPH;
+        i = put(i, x0, y0, g.u0, g.v0);
+        i = put(i, x1, y0, g.u1, g.v0);
+        i = put(i, x0, y1, g.u0, g.v1);
+        i = put(i, x1, y0, g.u1, g.v0);
+        i = put(i, x1, y1, g.u1, g.v1);
+        put(i, x0, y1, g.u0, g.v1);
+
+        glyphCount++;
+    }
+
+    private int put(int i, final float x, final float y, final float u, final float v) {
+        vertices[i++] = x;
+        vertices[i++] = y;
+        vertices[i++] = u;
+        vertices[i++] = v;
+        return i;
+    }
+}
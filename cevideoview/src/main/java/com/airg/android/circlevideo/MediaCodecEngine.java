@@ -0,0 +1,612 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Surface;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PlaybackEngine} that decodes the video track with {@link MediaCodec} on a dedicated thread and renders
+ * output buffers straight into the view's SurfaceTexture. Frames that come out of the decoder too late are dropped
+ * instead of being shown late (see {@link FrameScheduler}).
+ * <p>
+ * Video only: audio tracks are ignored and {@link #setVolume(float, float)} does nothing. Requires API 16.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class MediaCodecEngine implements PlaybackEngine {
+    private static final TaggedLogger LOG = Logger.tag("CEMediaCodec");
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PlaybackEngine create() {
+            return new MediaCodecEngine();
+        }
+    };
+
+    private static final long TIMEOUT_US = 10000L;
+    // bounds how long setSurface and release wait for the decoder thread; one pass of its loop takes a few TIMEOUT_US
+    private static final long HANDOFF_TIMEOUT_MS = 500L;
+
+    private final Object lock = new Object();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FrameScheduler frames = new FrameScheduler();
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private Listener listener;
+
+    // data source, one of
+    private String path;
+    private Context context;
+    private Uri uri;
+    private FileDescriptor fd;
+    private long fdOffset;
+    private long fdLength;
+
+    // guarded by lock, written by the caller and consumed by the decoder thread
+    private Surface surface;
+    private boolean surfaceChanged = false;
+    private boolean playing = false;
+    private boolean looping = false;
+    private long pendingSeekUs = -1L;
+    private boolean released = false;
+    private Thread thread;
+    // the surface the decoder may be rendering into, cleared when the decoder stops
+    private Surface decoderSurface;
+
+    private volatile int videoWidth = 0;
+    private volatile int videoHeight = 0;
+    private volatile long durationUs = 0L;
+    private volatile long positionUs = 0L;
+    private volatile boolean completed = false;
+
+    // decoder thread only
+    private MediaExtractor extractor;
+    private MediaFormat format;
+    private MediaCodec codec;
+    private ByteBuffer[] inputBuffers;
+    private boolean inputDone = false;
+    private int heldOutput = -1;
+    // frames before this are decoded but not shown, to land exactly where a seek or restart asked for
+    private long skipUntilUs = 0L;
+
+    @Override
+    public void setListener(final Listener engineListener) {
+        listener = engineListener;
+    }
+
+    @Override
+    public void setDataSource(final String dataPath) throws IOException {
+        path = dataPath;
+    }
+
+    @Override
+    public void setDataSource(final Context ctx, final Uri dataUri) throws IOException {
+        context = ctx.getApplicationContext();
+        uri = dataUri;
+    }
+
+    @Override
+    public void setDataSource(final FileDescriptor dataFd, final long offset, final long length) throws IOException {
+        fd = dataFd;
+        fdOffset = offset;
+        fdLength = length;
+    }
+
+    @Override
+    public void prepareAsync() {
+        synchronized (lock) {
+            if (null != thread) throw new IllegalStateException("Already prepared");
+
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    decode();
+                }
+            }, "CEVideoView-decoder");
+            thread.start();
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (lock) {
+            // like MediaPlayer: starting after completion plays from the beginning
+            if (completed) {
+                completed = false;
+                pendingSeekUs = 0L;
+            }
+
+            playing = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (lock) {
+            playing = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            playing = false;
+            pendingSeekUs = 0L;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void seekTo(final int msec) {
+        synchronized (lock) {
+            pendingSeekUs = msec * 1000L;
+            completed = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void setLooping(final boolean loop) {
+        synchronized (lock) {
+            looping = loop;
+        }
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        // no audio
+    }
+
+    /**
+     * Returns once the decoder no longer renders into the previous surface, so the caller can release it.
+     */
+    @Override
+    public void setSurface(final Surface outputSurface) {
+        synchronized (lock) {
+            surface = outputSurface;
+            surfaceChanged = true;
+            lock.notifyAll();
+
+            final long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT_MS;
+            // a later call takes over the wait
+            while (null != decoderSurface && decoderSurface != outputSurface && surface == outputSurface) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    LOG.e("Decoder did not switch surfaces within %d ms", HANDOFF_TIMEOUT_MS);
+                    return;
+                }
+
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return (int) (positionUs / 1000L);
+    }
+
+    @Override
+    public int getDuration() {
+        return (int) (durationUs / 1000L);
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return videoWidth;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return videoHeight;
+    }
+
+    /**
+     * @return input buffers queued to the decoder that haven't been output yet
+     */
+    public int getDecoderQueueDepth() {
+        return frames.queueDepth();
+    }
+
+    public long getRenderedFrameCount() {
+        return frames.renderedFrames();
+    }
+
+    /**
+     * @return frames decoded too late to be shown
+     */
+    public long getDroppedFrameCount() {
+        return frames.droppedFrames();
+    }
+
+    /**
+     * Returns once the decoder thread has stopped and released the codec.
+     */
+    @Override
+    public void release() {
+        final Thread decoder;
+        synchronized (lock) {
+            released = true;
+            decoder = thread;
+            lock.notifyAll();
+        }
+
+        if (null == decoder || decoder == Thread.currentThread()) return;
+
+        try {
+            decoder.join(HANDOFF_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (decoder.isAlive()) LOG.e("Decoder did not stop within %d ms", HANDOFF_TIMEOUT_MS);
+    }
+
+    private void decode() {
+        try {
+            open();
+            notifyPrepared();
+
+            boolean running = true;
+            while (running) running = step();
+        } catch (IOException e) {
+            LOG.e(e);
+            notifyError(MediaPlayer.MEDIA_ERROR_IO);
+        } catch (RuntimeException e) {
+            // MediaCodec reports most failures as IllegalStateException
+            LOG.e(e);
+            notifyError(MediaPlayer.MEDIA_ERROR_UNKNOWN);
+        } finally {
+            releaseCodec();
+            if (null != extractor) extractor.release();
+
+            synchronized (lock) {
+                decoderSurface = null;
+                lock.notifyAll();
+            }
+            if (BuildConfig.DEBUG) LOG.d("Decoder stopped");
+        }
+    }
+
+    private void open() throws IOException {
+        extractor = new MediaExtractor();
+
+        if (null != path) extractor.setDataSource(path);
+        else if (null != uri) extractor.setDataSource(context, uri, null);
+        else if (null != fd) extractor.setDataSource(fd, fdOffset, fdLength);
+        else throw new IOException("No data source");
+
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            final MediaFormat trackFormat = extractor.getTrackFormat(i);
+            final String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+
+            if (null != mime && mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                format = trackFormat;
+                break;
+            }
+        }
+
+        if (null == format) throw new IOException("No video track");
+
+        videoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        videoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        if (format.containsKey(MediaFormat.KEY_DURATION)) durationUs = format.getLong(MediaFormat.KEY_DURATION);
+    }
+
+    /**
+     * One pass of the decode loop: apply commands, then feed one input buffer and handle one output buffer.
+     *
+     * @return <code>false</code> once released
+     */
+    private boolean step() {
+        final long seekUs;
+        final Surface outputSurface;
+        final boolean surfaceUpdate;
+
+        synchronized (lock) {
+            while (!released && pendingSeekUs < 0 && !surfaceChanged && (!playing || null == surface)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+
+            if (released) return false;
+
+            seekUs = pendingSeekUs;
+            pendingSeekUs = -1L;
+            outputSurface = surface;
+            surfaceUpdate = surfaceChanged;
+            surfaceChanged = false;
+
+            // claimed before a codec is configured with it; a running codec keeps the old one until it is switched
+            if (null == codec) decoderSurface = outputSurface;
+        }
+
+        if (surfaceUpdate) changeSurface(outputSurface);
+        if (seekUs >= 0) seek(seekUs);
+
+        if (null == codec && null != outputSurface) startCodec(outputSurface);
+
+        synchronized (lock) {
+            final Surface rendering = null == codec ? null : outputSurface;
+            if (decoderSurface != rendering) {
+                decoderSurface = rendering;
+                lock.notifyAll();
+            }
+
+            if (null == codec) return true;
+
+            if (!playing) {
+                frames.reanchor();
+                return true;
+            }
+        }
+
+        // while a frame is waiting for its time, only top up the decoder if that doesn't block
+        if (!inputDone) queueInput(heldOutput < 0 ? TIMEOUT_US : 0L);
+        drainOutput();
+
+        return true;
+    }
+
+    private void startCodec(final Surface outputSurface) {
+        try {
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        codec.configure(format, outputSurface, null, 0);
+        codec.start();
+        inputBuffers = codec.getInputBuffers();
+        frames.onFlush();
+        if (BuildConfig.DEBUG) LOG.d("Decoder started (%dx%d)", videoWidth, videoHeight);
+    }
+
+    private void releaseCodec() {
+        if (null == codec) return;
+
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            LOG.d(e);
+        }
+
+        codec.release();
+        codec = null;
+        inputBuffers = null;
+        heldOutput = -1;
+    }
+
+    private void changeSurface(final Surface outputSurface) {
+        if (null == codec) return;
+
+        if (null != outputSurface && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            setOutputSurface(outputSurface);
+            return;
+        }
+
+        // older decoders are bound to the surface they were configured with: start over where we were
+        releaseCodec();
+        restartAt(positionUs);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setOutputSurface(final Surface outputSurface) {
+        codec.setOutputSurface(outputSurface);
+    }
+
+    private void seek(final long timeUs) {
+        if (null != codec) {
+            if (heldOutput >= 0) codec.releaseOutputBuffer(heldOutput, false);
+            heldOutput = -1;
+            codec.flush();
+        }
+
+        restartAt(timeUs);
+        notifySeekComplete();
+    }
+
+    private void restartAt(final long timeUs) {
+        extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        skipUntilUs = timeUs;
+        positionUs = timeUs;
+        inputDone = false;
+        frames.onFlush();
+    }
+
+    private void queueInput(final long timeoutUs) {
+        final int index = codec.dequeueInputBuffer(timeoutUs);
+        if (index < 0) return;
+
+        final int size = extractor.readSampleData(inputBuffers[index], 0);
+
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+            return;
+        }
+
+        codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+        frames.onInputQueued();
+        extractor.advance();
+    }
+
+    private void drainOutput() {
+        if (heldOutput < 0) {
+            final int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                onOutputFormatChanged(codec.getOutputFormat());
+                return;
+            }
+
+            // try again later, or output buffers changed, which we don't touch since we render to a surface
+            if (index < 0) return;
+
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                codec.releaseOutputBuffer(index, false);
+                onEndOfStream();
+                return;
+            }
+
+            frames.onOutputDequeued();
+            heldOutput = index;
+        }
+
+        final long ptsUs = info.presentationTimeUs;
+
+        if (ptsUs < skipUntilUs) {
+            codec.releaseOutputBuffer(heldOutput, false);
+            heldOutput = -1;
+            return;
+        }
+
+        switch (frames.decide(ptsUs)) {
+            case WAIT:
+                waitUntilDue(frames.waitNanos());
+                return;
+            case DROP:
+                codec.releaseOutputBuffer(heldOutput, false);
+                break;
+            case RENDER:
+                codec.releaseOutputBuffer(heldOutput, true);
+                positionUs = ptsUs;
+                break;
+        }
+
+        heldOutput = -1;
+    }
+
+    private void waitUntilDue(final long nanos) {
+        // keep the frame; pause, seek and release all wake us early
+        synchronized (lock) {
+            if (released || !playing || pendingSeekUs >= 0 || surfaceChanged) return;
+
+            try {
+                lock.wait(nanos / 1000000L, (int) (nanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void onOutputFormatChanged(final MediaFormat outputFormat) {
+        final int width = outputFormat.getInteger(MediaFormat.KEY_WIDTH);
+        final int height = outputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        if (width == videoWidth && height == videoHeight) return;
+
+        videoWidth = width;
+        videoHeight = height;
+        notifyVideoSizeChanged(width, height);
+    }
+
+    private void onEndOfStream() {
+        final boolean loop;
+        synchronized (lock) {
+            loop = looping;
+            if (!loop) {
+                playing = false;
+                completed = true;
+            }
+        }
+
+        if (loop) {
+            codec.flush();
+            restartAt(0L);
+            return;
+        }
+
+        positionUs = durationUs;
+        notifyCompletion();
+    }
+
+    private void notifyPrepared() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null == listener) return;
+                listener.onVideoSizeChanged(videoWidth, videoHeight);
+                listener.onPrepared();
+            }
+        });
+    }
+
+    private void notifyVideoSizeChanged(final int width, final int height) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != listener) listener.onVideoSizeChanged(width, height);
+            }
+        });
+    }
+
+    private void notifySeekComplete() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != listener) listener.onSeekComplete();
+            }
+        });
+    }
+
+    private void notifyCompletion() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != listener) listener.onCompletion();
+            }
+        });
+    }
+
+    private void notifyError(final int what) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != listener && !listener.onError(what, 0)) listener.onCompletion();
+            }
+        });
+    }
+}
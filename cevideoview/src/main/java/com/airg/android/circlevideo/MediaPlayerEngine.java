@@ -0,0 +1,178 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.view.Surface;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * {@link PlaybackEngine} backed by the framework {@link MediaPlayer}.
+ */
+public final class MediaPlayerEngine implements PlaybackEngine,
+        MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnVideoSizeChangedListener,
+        MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnSeekCompleteListener,
+        MediaPlayer.OnErrorListener {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PlaybackEngine create() {
+            return new MediaPlayerEngine();
+        }
+    };
+
+    private final MediaPlayer player;
+    private Listener listener;
+
+    public MediaPlayerEngine() {
+        this(new MediaPlayer());
+    }
+
+    /**
+     * Wrap an existing player, e.g. one that is already prepared. Its listeners are replaced.
+     */
+    public MediaPlayerEngine(final MediaPlayer mediaPlayer) {
+        player = mediaPlayer;
+        player.setOnPreparedListener(this);
+        player.setOnVideoSizeChangedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnSeekCompleteListener(this);
+        player.setOnErrorListener(this);
+    }
+
+    public MediaPlayer getMediaPlayer() {
+        return player;
+    }
+
+    @Override
+    public void setListener(final Listener engineListener) {
+        listener = engineListener;
+    }
+
+    @Override
+    public void setDataSource(final String path) throws IOException {
+        player.setDataSource(path);
+    }
+
+    @Override
+    public void setDataSource(final Context context, final Uri uri) throws IOException {
+        player.setDataSource(context, uri);
+    }
+
+    @Override
+    public void setDataSource(final FileDescriptor fd, final long offset, final long length) throws IOException {
+        player.setDataSource(fd, offset, length);
+    }
+
+    @Override
+    public void prepareAsync() {
+        player.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        player.start();
+    }
+
+    @Override
+    public void pause() {
+        player.pause();
+    }
+
+    @Override
+    public void stop() {
+        player.stop();
+    }
+
+    @Override
+    public void seekTo(final int msec) {
+        player.seekTo(msec);
+    }
+
+    @Override
+    public void setLooping(final boolean loop) {
+        player.setLooping(loop);
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        player.setVolume(leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setSurface(final Surface surface) {
+        player.setSurface(surface);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return player.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return player.getDuration();
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return player.getVideoWidth();
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return player.getVideoHeight();
+    }
+
+    @Override
+    public void release() {
+        player.release();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if (null != listener) listener.onPrepared();
+    }
+
+    @Override
+    public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+        if (null != listener) listener.onVideoSizeChanged(width, height);
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if (null != listener) listener.onCompletion();
+    }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        if (null != listener) listener.onSeekComplete();
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        return null != listener && listener.onError(what, extra);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.content.Context;
+import android.net.Uri;
+import android.view.Surface;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * What {@link CircularExpandableVideoView} needs from a video player. The default is {@link MediaPlayerEngine};
+ * other decoders, or a fake for tests, can be plugged in with
+ * {@link CircularExpandableVideoView#setPlaybackEngineFactory(Factory)}.
+ * <p>
+ * The lifecycle follows {@link android.media.MediaPlayer}: set a data source, {@link #prepareAsync()}, wait for
+ * {@link Listener#onPrepared()}, then start, pause, seek or stop. Listener callbacks are expected on the main thread.
+ * {@link #getCurrentPosition()} is also called from the GL thread.
+ */
+public interface PlaybackEngine {
+
+    interface Listener {
+        void onPrepared();
+
+        void onVideoSizeChanged(int width, int height);
+
+        void onCompletion();
+
+        void onSeekComplete();
+
+        /**
+         * @return <code>true</code> if the error was handled
+         */
+        boolean onError(int what, int extra);
+    }
+
+    interface Factory {
+        /**
+         * @return a new engine with no data source
+         */
+        PlaybackEngine create();
+    }
+
+    void setListener(Listener listener);
+
+    void setDataSource(String path) throws IOException;
+
+    void setDataSource(Context context, Uri uri) throws IOException;
+
+    void setDataSource(FileDescriptor fd, long offset, long length) throws IOException;
+
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    void seekTo(int msec);
+
+    void setLooping(boolean loop);
+
+    void setVolume(float leftVolume, float rightVolume);
+
+    /**
+     * Render into <code>surface</code> from now on, or stop rendering when <code>null</code>. The surface stays valid
+     * until the next call or until the engine is released, and both only return once the previous surface is no longer
+     * rendered into.
+     */
+    void setSurface(Surface surface);
+
+    /**
+     * @return playback position in milliseconds
+     */
+    int getCurrentPosition();
+
+    int getDuration();
+
+    int getVideoWidth();
+
+    int getVideoHeight();
+
+    void release();
+}
@@ -0,0 +1,187 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded set of players that are prepared ahead of time. Preload the videos a user is likely to open next, then
+ * give the pool to {@link CircularExpandableVideoView#setPlayerPool(PlayerPool)}: setting a preloaded path or uri on
+ * the view hands it the pooled player instead of preparing a new one, so playback can start on the next frame.
+ * <p>
+ * Every player holds a decoder, so keep the pool small. Preloading beyond capacity releases the oldest entry. Use the
+ * pool from the main thread only.
+ */
+public final class PlayerPool {
+    private static final TaggedLogger LOG = Logger.tag("CEPlayerPool");
+
+    private final Context context;
+    private final int capacity;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param maxPlayers maximum number of players prepared at any time
+     */
+    public PlayerPool(final Context context, final int maxPlayers) {
+        if (maxPlayers < 1)
+            throw new IllegalArgumentException("Invalid pool size: " + maxPlayers);
+
+        this.context = context.getApplicationContext();
+        capacity = maxPlayers;
+    }
+
+    /**
+     * Start preparing <code>path</code>. Does nothing if it is already pooled.
+     *
+     * @see MediaPlayer#setDataSource(String)
+     */
+    public void preload(final String path) {
+        if (entries.containsKey(path)) return;
+
+        final MediaPlayer player = new MediaPlayer();
+        try {
+            player.setDataSource(path);
+        } catch (IOException e) {
+            LOG.d(e);
+            player.release();
+            return;
+        }
+
+        add(path, player);
+    }
+
+    /**
+     * Start preparing <code>uri</code>. Does nothing if it is already pooled.
+     *
+     * @see MediaPlayer#setDataSource(Context, Uri)
+     */
+    public void preload(final Uri uri) {
+        final String key = uri.toString();
+        if (entries.containsKey(key)) return;
+
+        final MediaPlayer player = new MediaPlayer();
+        try {
+            player.setDataSource(context, uri);
+        } catch (IOException e) {
+            LOG.d(e);
+            player.release();
+            return;
+        }
+
+        add(key, player);
+    }
+
+    /**
+     * @return <code>true</code> if <code>source</code> (a path or a uri string) is pooled and finished preparing
+     */
+    public boolean isPrepared(final String source) {
+        final Entry entry = entries.get(source);
+        return null != entry && entry.prepared;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Release every pooled player. Players already handed to a view are not affected.
+     */
+    public void clear() {
+        for (final Entry entry : entries.values())
+            entry.player.release();
+
+        entries.clear();
+    }
+
+    /**
+     * Remove the entry for <code>source</code> from the pool. The caller owns the player from then on and must
+     * replace its listeners.
+     *
+     * @return the entry, still preparing or prepared, or <code>null</code> if <code>source</code> isn't pooled
+     */
+    Entry take(final String source) {
+        final Entry entry = entries.remove(source);
+        if (BuildConfig.DEBUG && null != entry) LOG.d("Handing over %s (prepared: %s)", source, entry.prepared);
+        return entry;
+    }
+
+    private void add(final String key, final MediaPlayer player) {
+        final Entry entry = new Entry(key, player);
+
+        player.setOnPreparedListener(entry);
+        player.setOnErrorListener(entry);
+
+        try {
+            player.prepareAsync();
+        } catch (IllegalStateException e) {
+            LOG.e(e);
+            player.release();
+            return;
+        }
+
+        entries.put(key, entry);
+
+        final Iterator<Entry> oldest = entries.values().iterator();
+        while (entries.size() > capacity) {
+            final Entry evicted = oldest.next();
+            oldest.remove();
+            evicted.player.release();
+            if (BuildConfig.DEBUG) LOG.d("Evicted %s", evicted.key);
+        }
+    }
+
+    final class Entry implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+        final String key;
+        final MediaPlayer player;
+        boolean prepared = false;
+
+        private Entry(final String source, final MediaPlayer mediaPlayer) {
+            key = source;
+            player = mediaPlayer;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            prepared = true;
+            if (BuildConfig.DEBUG) LOG.d("Prepared %s", key);
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            LOG.d("Unable to preload %s: 0x%x (extra: 0x%x)", key, what, extra);
+
+            if (entries.get(key) == this) {
+                entries.remove(key);
+                player.release();
+            }
+
+            return true;
+        }
+    }
+}
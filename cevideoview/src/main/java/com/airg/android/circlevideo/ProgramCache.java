@@ -0,0 +1,266 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.support.annotation.RawRes;
+import android.util.SparseArray;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Caches what it takes to get a linked shader program back after the EGL context is lost.
+ * <p>
+ * Shader source is read from resources once per process and kept in memory. Where the driver can hand out program
+ * binaries (an OpenGL ES 3 context on API 18+), linked programs are also written to the app's cache directory, keyed
+ * by GPU, driver version and a hash of the sources, and loaded back instead of compiling and linking.
+ */
+final class ProgramCache {
+    private static final TaggedLogger LOG = Logger.tag("CEProgramCache");
+
+    private static final String CACHE_DIR = "cevideoview-programs";
+    private static final int FILE_VERSION = 1;
+
+    private static final SparseArray<String> SOURCES = new SparseArray<>();
+
+    private static final Executor WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CEVideoView-program-cache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ProgramCache() {
+    }
+
+    static String shaderSource(final Resources resources, @RawRes final int resId) {
+        synchronized (SOURCES) {
+            String source = SOURCES.get(resId);
+            if (null == source) {
+                source = Helper.loadShaderCode(resources, resId);
+                if (null != source) SOURCES.put(resId, source);
+            }
+            return source;
+        }
+    }
+
+    /**
+     * Try to restore a linked program from disk. Must be called on the GL thread.
+     *
+     * @return the program, or 0 if there is no usable binary
+     */
+    static int load(final Context context, final String vertexSource, final String fragmentSource) {
+        if (!binariesSupported()) return 0;
+
+        final File file = cacheFile(context, vertexSource, fragmentSource);
+        if (null == file || !file.exists()) return 0;
+
+        final int program = loadBinary(file);
+        if (program == 0 && !file.delete())
+            LOG.d("Unable to delete stale program binary %s", file);
+
+        return program;
+    }
+
+    /**
+     * Ask the driver to keep the binary retrievable. Call after creating the program and before linking it.
+     */
+    static void prepareForLink(final int program) {
+        if (!binariesSupported()) return;
+        setRetrievable(program);
+    }
+
+    /**
+     * Save a freshly linked program so later surfaces can skip compiling and linking. Must be called on the GL thread;
+     * the file is written in the background.
+     */
+    static void store(final Context context, final int program, final String vertexSource, final String fragmentSource) {
+        if (program == 0 || !binariesSupported()) return;
+
+        final File file = cacheFile(context, vertexSource, fragmentSource);
+        if (null == file) return;
+
+        final int[] format = new int[1];
+        final byte[] binary = readBinary(program, format);
+        if (null == binary) return;
+
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(file, format[0], binary);
+            }
+        });
+    }
+
+    private static boolean binariesSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) return false;
+
+        // we ask for an ES 2 context but most drivers hand out ES 3, which has program binaries in core
+        final String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return null != version && version.startsWith("OpenGL ES 3");
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void setRetrievable(final int program) {
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        GLES20.glGetError();    // not fatal if the driver doesn't like it
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static byte[] readBinary(final int program, final int[] format) {
+        final int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) return null;
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        final int[] written = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], written, 0, format, 0, buffer);
+
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || written[0] <= 0) return null;
+
+        final byte[] bytes = new byte[written[0]];
+        buffer.position(0);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static int loadBinary(final File file) {
+        final int format;
+        final byte[] binary;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != FILE_VERSION) return 0;
+            format = in.readInt();
+            final int length = in.readInt();
+            if (length <= 0 || length > file.length()) return 0;
+            binary = new byte[length];
+            in.readFully(binary);
+        } catch (IOException e) {
+            LOG.d(e);
+            return 0;
+        } finally {
+            close(in);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary).position(0);
+
+        final int program = GLES20.glCreateProgram();
+        if (program == 0) return 0;
+
+        GLES30.glProgramBinary(program, format, buffer, binary.length);
+
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+
+        // the driver rejects binaries it no longer understands, e.g. after an update
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || linkStatus[0] != GLES20.GL_TRUE) {
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+
+        if (BuildConfig.DEBUG) LOG.d("Loaded program binary %s", file.getName());
+        return program;
+    }
+
+    private static void writeFile(final File file, final int format, final byte[] binary) {
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        final File tmp = new File(dir, file.getName() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(format);
+            out.writeInt(binary.length);
+            out.write(binary);
+        } catch (IOException e) {
+            LOG.d(e);
+            close(out);
+            return;
+        }
+
+        close(out);
+
+        if (!tmp.renameTo(file)) LOG.d("Unable to store program binary %s", file);
+    }
+
+    private static void close(final Closeable closeable) {
+        if (null == closeable) return;
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOG.d(e);
+        }
+    }
+
+    private static File cacheFile(final Context context, final String vertexSource, final String fragmentSource) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, GLES20.glGetString(GLES20.GL_VENDOR));
+            update(digest, GLES20.glGetString(GLES20.GL_RENDERER));
+            update(digest, GLES20.glGetString(GLES20.GL_VERSION));
+            update(digest, Build.FINGERPRINT);
+            update(digest, vertexSource);
+            update(digest, fragmentSource);
+
+            final StringBuilder name = new StringBuilder();
+            for (final byte b : digest.digest())
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+
+            return new File(new File(context.getCacheDir(), CACHE_DIR), name.append(".bin").toString());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        if (null != value) digest.update(value.getBytes());
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides when the GL surface needs a new frame. Producers (video frames, animation ticks, subtitle changes) call
+ * {@link #invalidate()}; the GL thread calls {@link #beginFrame()} before drawing and {@link #onFrameDrawn(long)} or
+ * {@link #onFrameSkipped()} after. Invalidations that arrive while a frame is already pending are coalesced into that
+ * frame.
+ * <p>
+ * Has no Android dependencies so it can be exercised on the JVM.
+ */
+final class RenderScheduler {
+
+    static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60L;
+
+    interface Target {
+        void requestRender();
+    }
+
+    private final Target target;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    // something changed since the last frame began; starts set so the first frame is drawn
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+
+    private volatile long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    private long drawnFrames = 0;
+    private long skippedFrames = 0;
+    private long unchangedFrames = 0;
+    private long coalescedRequests = 0;
+    private long lastFrameNanos = -1;
+
+    RenderScheduler(final Target renderTarget) {
+        target = renderTarget;
+    }
+
+    /**
+     * Set the display refresh interval used to work out how many frames a continuous renderer would have drawn.
+     */
+    void setFrameIntervalNanos(final long intervalNanos) {
+        if (intervalNanos <= 0)
+            throw new IllegalArgumentException("Invalid frame interval: " + intervalNanos);
+
+        frameIntervalNanos = intervalNanos;
+    }
+
+    /**
+     * Mark the scene as changed. Requests a render unless one is already pending.
+     */
+    void invalidate() {
+        dirty.set(true);
+
+        if (pending.compareAndSet(false, true)) {
+            target.requestRender();
+            return;
+        }
+
+        synchronized (this) {
+            coalescedRequests++;
+        }
+    }
+
+    /**
+     * Called by the GL thread before it draws. Invalidations from here on request another frame.
+     *
+     * @return <code>true</code> if anything changed since the previous frame began
+     */
+    boolean beginFrame() {
+        pending.set(false);
+        return dirty.getAndSet(false);
+    }
+
+    /**
+     * @return <code>true</code> if a frame has been requested since the last {@link #beginFrame()}
+     */
+    boolean isPending() {
+        return pending.get();
+    }
+
+    /**
+     * Called by the GL thread after a frame was drawn.
+     *
+     * @param nowNanos monotonic timestamp of the frame
+     */
+    synchronized void onFrameDrawn(final long nowNanos) {
+        drawnFrames++;
+
+        if (lastFrameNanos >= 0 && nowNanos > lastFrameNanos) {
+            final long vsyncs = (nowNanos - lastFrameNanos + frameIntervalNanos / 2) / frameIntervalNanos;
+            if (vsyncs > 1) skippedFrames += vsyncs - 1;
+        }
+
+        lastFrameNanos = nowNanos;
+    }
+
+    /**
+     * Forget the last frame timestamp, e.g. when the surface goes away, so the idle time is not counted as skipped.
+     */
+    synchronized void reset() {
+        pending.set(false);
+        dirty.set(true);
+        lastFrameNanos = -1;
+    }
+
+    /**
+     * Called by the GL thread instead of {@link #onFrameDrawn(long)} when it was asked for a frame but nothing had
+     * changed, and the previous frame was left on screen.
+     */
+    synchronized void onFrameSkipped() {
+        unchangedFrames++;
+    }
+
+    synchronized long drawnFrames() {
+        return drawnFrames;
+    }
+
+    /**
+     * @return number of display refreshes since the first frame that a continuous renderer would have drawn but we
+     * did not
+     */
+    synchronized long skippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return number of frames the GL thread was asked for that were not drawn because nothing had changed
+     */
+    synchronized long unchangedFrames() {
+        return unchangedFrames;
+    }
+
+    /**
+     * @return number of invalidations that arrived while a frame was already pending and so didn't request another
+     */
+    synchronized long coalescedRequests() {
+        return coalescedRequests;
+    }
+}
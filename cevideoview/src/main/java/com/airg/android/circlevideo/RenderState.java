@@ -0,0 +1,122 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+/**
+ * What the GL thread needs to draw one frame of the cropped video. Filled in by {@link VideoRenderer#updateScale()}
+ * under the renderer lock and handed to the GL thread whole through a {@link RenderStateBuffer}, so a frame never
+ * mixes the geometry of one animation step with the crop of another, and the GL thread reads it without locking.
+ * States are recycled rather than allocated per step: one is only written while neither the GL thread nor the buffer
+ * hands it out.
+ * <p>
+ * The quad and the crop radius are given as the two ends of an animation and where between them this frame is, which
+ * the vertex shader interpolates. Outside of a GPU driven animation both ends are the same.
+ */
+final class RenderState {
+    // left, bottom, right, top of the video quad in clip space
+    final float[] quadFrom = {-1f, -1f, 1f, 1f};
+    final float[] quadTo = {-1f, -1f, 1f, 1f};
+    float geometryFraction = 0f;
+    float radiusFrom = 0f;
+    float radiusTo = 0f;
+    float radiusFraction = 0f;
+
+    float aspectRatio = 1f;
+    float antiAliasThreshold = 0f;
+
+    int videoWidth = 0;
+    int videoHeight = 0;
+    int displayedVideoWidth = 0;
+    int displayedVideoHeight = 0;
+
+    /**
+     * A state that isn't animated.
+     */
+    void set(final float left, final float bottom, final float right, final float top, final float radius,
+             final float aspect, final float threshold, final int videoW, final int videoH, final int displayedW,
+             final int displayedH) {
+        setQuad(quadFrom, left, bottom, right, top);
+        setQuad(quadTo, left, bottom, right, top);
+        geometryFraction = 0f;
+        radiusFrom = radius;
+        radiusTo = radius;
+        radiusFraction = 0f;
+        setVideo(aspect, threshold, videoW, videoH, displayedW, displayedH);
+    }
+
+    /**
+     * A step of a GPU driven animation.
+     *
+     * @param from left, bottom, right, top at the start. Copied.
+     * @param to   left, bottom, right, top at the end. Copied.
+     */
+    void set(final float[] from, final float[] to, final float geometry, final float radiusStart,
+             final float radiusEnd, final float radius, final float aspect, final float threshold,
+             final int videoW, final int videoH, final int displayedW, final int displayedH) {
+        System.arraycopy(from, 0, quadFrom, 0, 4);
+        System.arraycopy(to, 0, quadTo, 0, 4);
+        geometryFraction = geometry;
+        radiusFrom = radiusStart;
+        radiusTo = radiusEnd;
+        radiusFraction = radius;
+        setVideo(aspect, threshold, videoW, videoH, displayedW, displayedH);
+    }
+
+    private static void setQuad(final float[] quad, final float left, final float bottom, final float right,
+                                final float top) {
+        quad[0] = left;
+        quad[1] = bottom;
+        quad[2] = right;
+        quad[3] = top;
+    }
+
+    private void setVideo(final float aspect, final float threshold, final int videoW, final int videoH,
+                          final int displayedW, final int displayedH) {
+        aspectRatio = aspect;
+        antiAliasThreshold = threshold;
+        videoWidth = videoW;
+        videoHeight = videoH;
+        displayedVideoWidth = displayedW;
+        displayedVideoHeight = displayedH;
+    }
+
+    private static float lerp(final float start, final float end, final float fraction) {
+        return start + fraction * (end - start);
+    }
+
+    float left() {
+        return lerp(quadFrom[0], quadTo[0], geometryFraction);
+    }
+
+    float bottom() {
+        return lerp(quadFrom[1], quadTo[1], geometryFraction);
+    }
+
+    float right() {
+        return lerp(quadFrom[2], quadTo[2], geometryFraction);
+    }
+
+    float top() {
+        return lerp(quadFrom[3], quadTo[3], geometryFraction);
+    }
+
+    float cropRadius() {
+        return lerp(radiusFrom, radiusTo, radiusFraction);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffered handoff of {@link RenderState}s from the thread that lays the bubble out to the GL thread, without
+ * locking and without allocating per animation step. The writer fills the state it owns and swaps it for the one last
+ * published; the reader swaps the state it draws from for the published one whenever that is newer. Neither ever
+ * sees the state the other one is using.
+ * <p>
+ * One writer at a time (the renderer lock serialises them) and one reader, the GL thread.
+ */
+final class RenderStateBuffer {
+    private static final int INDEX = 3;
+    // set on the published index until the reader takes it
+    private static final int FRESH = 4;
+
+    private final RenderState[] states = {new RenderState(), new RenderState(), new RenderState()};
+    private final AtomicInteger published = new AtomicInteger(1);
+    // writer only
+    private int back = 2;
+    // reader only
+    private int front = 0;
+
+    /**
+     * @return the state to fill in and then {@link #publish()}. Writer only.
+     */
+    RenderState edit() {
+        return states[back];
+    }
+
+    /**
+     * Make the state returned by {@link #edit()} the latest. Writer only.
+     */
+    void publish() {
+        back = published.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * @return the latest published state, which stays untouched until the next call. Reader only.
+     */
+    RenderState latest() {
+        if ((published.get() & FRESH) != 0)
+            front = published.getAndSet(front) & INDEX;
+
+        return states[front];
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import android.opengl.GLSurfaceView;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * Creates the OpenGL ES 2 context of one view, or takes it from {@link SharedGlBackend}, and has the renderer release
+ * what it holds on the GL thread just before the context is destroyed: when the view is detached, or paused without
+ * keeping its context.
+ */
+final class RendererContextFactory implements GLSurfaceView.EGLContextFactory {
+    private static final TaggedLogger LOG = Logger.tag("CEContext");
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int[] CONTEXT_ATTRIBUTES = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+
+    private final VideoRenderer renderer;
+    private final boolean shared;
+
+    RendererContextFactory(final VideoRenderer videoRenderer, final boolean sharedBackend) {
+        renderer = videoRenderer;
+        shared = sharedBackend;
+    }
+
+    @Override
+    public EGLContext createContext(final EGL10 egl, final EGLDisplay display, final EGLConfig config) {
+        if (shared) return SharedGlBackend.get().createContext(egl, display, config);
+
+        return egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, CONTEXT_ATTRIBUTES);
+    }
+
+    @Override
+    public void destroyContext(final EGL10 egl, final EGLDisplay display, final EGLContext context) {
+        // the window surface is already gone: without one the context can only be made current again where
+        // surfaceless contexts are supported. Otherwise the renderer's GL objects go with the context or share group
+        final boolean current = egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, context);
+
+        try {
+            renderer.release();
+        } finally {
+            if (current)
+                egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        }
+
+        if (shared) {
+            SharedGlBackend.get().destroyContext(egl, display, context);
+        } else if (!egl.eglDestroyContext(display, context)) {
+            LOG.e("eglDestroyContext failed: 0x%x", egl.eglGetError());
+        }
+    }
+}
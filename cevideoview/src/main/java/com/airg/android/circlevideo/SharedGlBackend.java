@@ -0,0 +1,146 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+
+import com.airg.android.logging.Logger;
+import com.airg.android.logging.TaggedLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * Opt-in rendering backend shared by every {@link CircularExpandableVideoView} that uses it.
+ * <p>
+ * Each GLSurfaceView renders on its own thread, and an EGL context can only be current on one thread at a time, so
+ * views can't literally share a single context. Instead all their contexts are created in one EGL share group: the
+ * masked video program is compiled and linked once for the whole group, and OES textures are handed out from a
+ * pool. Each view only owns its surface, its SurfaceTexture and the uniform values it sets before drawing.
+ * <p>
+ * The share group lives as long as at least one of its contexts does. When the last one is destroyed the GL objects go
+ * with it, the group generation is bumped and the next context starts a new group.
+ */
+final class SharedGlBackend implements GLSurfaceView.EGLContextFactory {
+    private static final TaggedLogger LOG = Logger.tag("CESharedGL");
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int[] CONTEXT_ATTRIBUTES = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+
+    private static final SharedGlBackend INSTANCE = new SharedGlBackend();
+
+    private final List<EGLContext> contexts = new ArrayList<>();
+    private final List<Integer> freeTextures = new ArrayList<>();
+
+    private int generation = 0;
+    private int program = 0;
+
+    static SharedGlBackend get() {
+        return INSTANCE;
+    }
+
+    private SharedGlBackend() {
+    }
+
+    @Override
+    public synchronized EGLContext createContext(final EGL10 egl, final EGLDisplay display, final EGLConfig config) {
+        final EGLContext share = contexts.isEmpty() ? EGL10.EGL_NO_CONTEXT : contexts.get(0);
+        final EGLContext context = egl.eglCreateContext(display, config, share, CONTEXT_ATTRIBUTES);
+
+        if (null == context || context == EGL10.EGL_NO_CONTEXT) {
+            LOG.e("Unable to create shared context: 0x%x", egl.eglGetError());
+            return context;
+        }
+
+        if (contexts.isEmpty()) {
+            // new share group: nothing from the previous one survived
+            generation++;
+            program = 0;
+            freeTextures.clear();
+            if (BuildConfig.DEBUG) LOG.d("Started share group %d", generation);
+        }
+
+        contexts.add(context);
+        return context;
+    }
+
+    @Override
+    public synchronized void destroyContext(final EGL10 egl, final EGLDisplay display, final EGLContext context) {
+        contexts.remove(context);
+
+        if (!egl.eglDestroyContext(display, context))
+            LOG.e("eglDestroyContext failed: 0x%x", egl.eglGetError());
+
+        if (contexts.isEmpty() && BuildConfig.DEBUG) LOG.d("Share group %d is gone", generation);
+    }
+
+    /**
+     * @return identifies the current share group. GL names obtained under a different generation are no longer valid.
+     */
+    synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * Get the masked video program for the current share group, linking it on first use. Must be called on a GL
+     * thread whose context belongs to this backend.
+     */
+    synchronized int program(final ProgramFactory factory) {
+        if (program == 0) {
+            program = factory.createProgram();
+            // make the program visible to the other contexts in the group before anyone else uses it
+            GLES20.glFinish();
+        }
+
+        return program;
+    }
+
+    /**
+     * Take an OES texture from the pool, or create one. Must be called on a GL thread whose context belongs to this
+     * backend.
+     */
+    synchronized int acquireTexture() {
+        if (!freeTextures.isEmpty())
+            return freeTextures.remove(freeTextures.size() - 1);
+
+        final int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glFlush();
+        return textures[0];
+    }
+
+    /**
+     * Return a texture to the pool. Can be called from any thread; textures from an older share group are ignored.
+     */
+    synchronized void releaseTexture(final int texture, final int textureGeneration) {
+        if (texture == 0 || textureGeneration != generation || freeTextures.contains(texture)) return;
+
+        freeTextures.add(texture);
+    }
+
+    interface ProgramFactory {
+        int createProgram();
+    }
+}
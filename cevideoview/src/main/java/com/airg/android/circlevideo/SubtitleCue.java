@@ -0,0 +1,46 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * A single subtitle cue. Times are in milliseconds; the cue is shown for <code>startMs &lt;= t &lt; endMs</code>.
+ */
+@ToString
+@EqualsAndHashCode
+final class SubtitleCue {
+    final long startMs;
+    final long endMs;
+    final String text;
+
+    SubtitleCue(final long start, final long end, final String cueText) {
+        if (end < start)
+            throw new IllegalArgumentException("Cue ends before it starts: " + start + " --> " + end);
+
+        startMs = start;
+        endMs = end;
+        text = cueText;
+    }
+
+    boolean isActiveAt(final long positionMs) {
+        return positionMs >= startMs && positionMs < endMs;
+    }
+}
@@ -26,30 +26,17 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
-import android.media.MediaPlayer;
-import android.media.TimedText;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
-import android.os.Build;
-import android.text.Html;
 import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.util.TypedValue;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static android.opengl.GLES20.GL_TEXTURE_2D;
 
@@ -63,6 +50,10 @@ final class SubtitlesRenderer {
 
     private static final int KERNEL_SIZE = 9;
 
+    // rasterised cue bitmaps kept around for look-ahead, seeking back and looping
+    private static final int CUE_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final int CUE_LOOK_AHEAD = 3;
+
     private static final String VERTEX_SHADER =
             "uniform mat4 uMVPMatrix;\n" +
                     "uniform mat4 uTexMatrix;\n" +
@@ -83,6 +74,16 @@ final class SubtitlesRenderer {
                     "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
                     "}\n";
 
+    // Glyph atlas is alpha only. Output premultiplied white, the same as a rasterised ARGB cue bitmap.
+    private static final String FRAGMENT_SHADER_ATLAS =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture;\n" +
+                    "void main() {\n" +
+                    "    float a = texture2D(sTexture, vTextureCoord).a;\n" +
+                    "    gl_FragColor = vec4(a, a, a, a);\n" +
+                    "}\n";
+
     private int mProgramHandle;
     private int mTextureId;
     private int muMVPMatrixLoc;
@@ -92,12 +93,37 @@ final class SubtitlesRenderer {
     private int muColorAdjustLoc;
     private int maPositionLoc;
     private int maTextureCoordLoc;
+    private int mAtlasProgramHandle;
+    private int mAtlasTextureId;
+    private int muAtlasMVPMatrixLoc;
+    private int muAtlasTexMatrixLoc;
+    private int maAtlasPositionLoc;
+    private int maAtlasTextureCoordLoc;
     private float[] mKernel = new float[KERNEL_SIZE];
     private float[] mTexOffset;
     private float mColorAdjust;
 
-    private float[] modelMatrix;
-    private float[] scratchMatrix = new float[32];
+    private static final float[] TEX_COORDS = {
+            0.0f, 0.0f,     // 0 bottom left
+            1.0f, 0.0f,     // 1 bottom right
+            0.0f, 1.0f,     // 2 top left
+            1.0f, 1.0f      // 3 top right
+    };
+
+    // Everything the draw path needs is allocated up front so steady-state frames allocate nothing.
+    private final float[] modelMatrix = new float[16];
+    private final float[] projectionMatrix = new float[16];
+    private final float[] scratchMatrix = new float[32];
+    private final Transformer transformer = new Transformer();
+
+    private final float[] vertexArray = new float[8];
+    private final FloatBuffer vertexBuffer = createFloatBuffer(vertexArray);
+    private final FloatBuffer texBuffer = createFloatBuffer(TEX_COORDS);
+
+    private float lastSurfaceWidth = -1;
+    private float lastSurfaceHeight = -1;
+    private int lastBitmapWidth = -1;
+    private int lastBitmapHeight = -1;
 
     private Context context;
     private Typeface fontFace;
@@ -105,17 +131,67 @@ final class SubtitlesRenderer {
     private int maxWidth;
 
     private Bitmap bitmap;
+    // true when bitmap is owned by cueCache rather than by us
+    private boolean bitmapCached = false;
+    private final CueBitmapCache cueCache;
+
+    // glyph atlas path: cues are laid out as quads over a shared glyph texture instead of rasterised per cue
+    private final boolean glyphAtlasEnabled;
+    private GlyphAtlas atlas;
+    private final GlyphLayout layout = new GlyphLayout();
+    private boolean showingQuads = false;
+    private FloatBuffer quadBuffer = ByteBuffer.allocateDirect(GlyphLayout.FLOATS_PER_GLYPH * 64 * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private int uploadedAtlasGeneration = -1;
+    private int quadGeneration = -1;
+
+    private CueTimeline cues = CueTimeline.EMPTY;
+    private int currentCue = CueTimeline.NO_CUE;
+    // set by the cue worker when the bitmap the current cue is waiting for has been rasterised
+    private int readyCue = CueTimeline.NO_CUE;
+    // bumped whenever the cue changes; compared on the GL thread to decide whether to re-upload
+    private int generation = 0;
+    private int uploadedGeneration = -1;
 
     private final Object lock = new Object();
+    private final RenderScheduler scheduler;
 
-    SubtitlesRenderer(Context ctx, Typeface fontFace, int textSize, int maxWidth) {
+    SubtitlesRenderer(Context ctx, Typeface fontFace, int textSize, int maxWidth, RenderScheduler renderScheduler,
+                      boolean useGlyphAtlas) {
 
         context = ctx;
+        scheduler = renderScheduler;
         this.fontFace = fontFace;
         this.textSize = textSize;
         this.maxWidth = maxWidth;
+        glyphAtlasEnabled = useGlyphAtlas;
+
+        // the atlas draws most cues: only rasterise the ones it can't lay out, when they are asked for
+        cueCache = new CueBitmapCache(CUE_CACHE_BYTES, glyphAtlasEnabled ? 0 : CUE_LOOK_AHEAD, new CueBitmapCache.Rasterizer() {
+            @Override
+            public Bitmap rasterize(SubtitleCue cue) {
+                return cue.text.length() > 0 ? fromText(cue.text, SubtitlesRenderer.this.maxWidth) : null;
+            }
+        }, new CueBitmapCache.Listener() {
+            @Override
+            public void onCueReady(int index) {
+                synchronized (lock) {
+                    if (index != currentCue) return;
+                    readyCue = index;
+                }
+                scheduler.invalidate();
+            }
+        });
+
+        mProgramHandle = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_2D);
 
-        mProgramHandle = createProgram();
+        if (glyphAtlasEnabled) {
+            mAtlasProgramHandle = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_ATLAS);
+            maAtlasPositionLoc = GLES20.glGetAttribLocation(mAtlasProgramHandle, "aPosition");
+            maAtlasTextureCoordLoc = GLES20.glGetAttribLocation(mAtlasProgramHandle, "aTextureCoord");
+            muAtlasMVPMatrixLoc = GLES20.glGetUniformLocation(mAtlasProgramHandle, "uMVPMatrix");
+            muAtlasTexMatrixLoc = GLES20.glGetUniformLocation(mAtlasProgramHandle, "uTexMatrix");
+        }
 
         maPositionLoc = GLES20.glGetAttribLocation(mProgramHandle, "aPosition");
         maTextureCoordLoc = GLES20.glGetAttribLocation(mProgramHandle, "aTextureCoord");
@@ -136,126 +212,183 @@ final class SubtitlesRenderer {
             setKernel(new float[]{0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 0f}, 0f);
             setTexSize(256, 256);
         }
-        modelMatrix = new float[16];
-        //Matrix.setIdentityM(modelMatrix, 0);
     }
 
-    void setSubtitles(Context context, String vtt, MediaPlayer player) {
-
-
+    /**
+     * Replace the cue table. Cue text must already be plain, see {@link CircularExpandableVideoView#setSubtitles}. The cue showing is picked on the GL thread from the playback position in
+     * {@link #update(long)}.
+     */
+    void setCues(CueTimeline timeline) {
         synchronized (lock) {
+            cues = null == timeline ? CueTimeline.EMPTY : timeline;
+            currentCue = CueTimeline.NO_CUE;
+            hideCue();
+            cueCache.setTimeline(cues);
+        }
+    }
 
-            bitmap = null;
-
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-
-
-                    MediaPlayer.TrackInfo[] tracks = player.getTrackInfo();
-                    for (int i = 0; i < tracks.length; ++i) {
-                        if (tracks[i].getTrackType() == MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT) {
-                            player.deselectTrack(i);
-                            player.setOnTimedTextListener(null);
-                        }
-                    }
-
-                    final String srtText = convertVTTtoSRT(vtt);
-
-                    byte[] srtBytes = srtText.getBytes("ISO-8859-1");
-
-
-                    File outputDir = context.getCacheDir();
-                    File srtFile = File.createTempFile("subtitles", "srt", outputDir);
-
-                    OutputStream os = new FileOutputStream(srtFile);
-                    os.write(srtBytes);
-                    os.close();
-                    player.addTimedTextSource(srtFile.getAbsolutePath(), MediaPlayer.MEDIA_MIMETYPE_TEXT_SUBRIP);
-
-                    tracks = player.getTrackInfo();
-                    for (int i = 0; i < tracks.length; ++i) {
-                        if (tracks[i].getTrackType() == MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT) {
-                            player.selectTrack(i);
-                        }
-                    }
-
-                    player.setOnTimedTextListener(new MediaPlayer.OnTimedTextListener() {
-                        @Override
-                        public void onTimedText(MediaPlayer mediaPlayer, TimedText timedText) {
-                            if (null != timedText) {
-
-                                String text = timedText.getText();
-                                if (null != text) {
-                                    text = text.trim();
-                                    if (!text.equals("~")) {
-                                        setText(Html.fromHtml(text).toString());
-
-                                    } else {
-                                        setText(null);
-                                    }
-                                } else {
-                                    setText(null);
-                                }
-                            } else {
-                                setText(null);
-                            }
-                        }
-                    });
-                }
+    /**
+     * Show whichever cue is active at <code>positionMs</code>. Called on the GL thread before {@link #render}.
+     */
+    void update(long positionMs) {
+        synchronized (lock) {
+            final int index = cues.indexAt(positionMs);
 
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (index == currentCue) {
+                // the bitmap this cue was waiting for has arrived
+                if (readyCue == index) showCue(index);
+                return;
             }
+
+            currentCue = index;
+            showCue(index);
         }
     }
 
-    void setText(String text) {
+    private void showCue(int index) {
 
         synchronized (lock) {
-            Bitmap originalBmp = bitmap;
-            if (null != text && text.length() > 0) {
-                bitmap = fromText(text, maxWidth);
-            } else {
-                bitmap = null;
-            }
-            if (null != originalBmp) {
-                originalBmp.recycle();
+            releaseBitmap();
+            showingQuads = false;
+            readyCue = CueTimeline.NO_CUE;
+
+            if (index != CueTimeline.NO_CUE) {
+                if (glyphAtlasEnabled && layout.layout(cues.get(index).text, atlas(), maxWidth)) {
+                    showingQuads = true;
+                } else {
+                    bitmap = cueCache.acquire(index);
+                    bitmapCached = true;
+                }
             }
+
+            generation++;
         }
     }
 
-    void render(float width, float height) {
+    private void releaseBitmap() {
+        if (null == bitmap) return;
 
-        synchronized (lock) {
-            if (null != bitmap) {
-                Matrix.setIdentityM(modelMatrix, 0);
+        if (bitmapCached) {
+            cueCache.release(bitmap);
+        } else {
+            bitmap.recycle();
+        }
 
-                Transformer transformer = new Transformer();
-                float[] transformMatrix = transformer
-                        .translate(0, (bitmap.getHeight() - height) / 2 + 30, 0)
-                        .scale(1.0f, 1.0f, 1.0f)
-                        .rotateAroundX(180)
-                        .build();
+        bitmap = null;
+        bitmapCached = false;
+    }
 
-                Matrix.multiplyMM(modelMatrix, 0, IDENTITY_MATRIX.clone(), 0, transformMatrix, 0);
+    /**
+     * Drop cached cue bitmaps. Called when this renderer is replaced.
+     */
+    void release() {
+        synchronized (lock) {
+            releaseBitmap();
+            showingQuads = false;
+            cueCache.clear();
+            if (null != atlas) {
+                atlas.recycle();
+                atlas = null;
+            }
+        }
+    }
 
+    /**
+     * Delete the programs and textures created by {@link #init()}. Must be called on the GL thread, with the context
+     * they were created in current.
+     */
+    void releaseGl() {
+        GLES20.glDeleteProgram(mProgramHandle);
+        mProgramHandle = 0;
 
-                float[] projectionMatrix = new float[16];
-                float near = -1.0f, far = 1.0f,
-                        right = width / 2,
-                        top = height /2;
+        final int[] textures = {mTextureId, mAtlasTextureId};
+        GLES20.glDeleteTextures(textures.length, textures, 0);
+        mTextureId = 0;
 
-                Matrix.orthoM(projectionMatrix, 0,
-                        -right, right,
-                        -top, top,
-                        near, far);
+        if (0 != mAtlasProgramHandle) {
+            GLES20.glDeleteProgram(mAtlasProgramHandle);
+            mAtlasProgramHandle = 0;
+        }
+        mAtlasTextureId = 0;
+    }
 
-                Matrix.multiplyMM(scratchMatrix, 0, projectionMatrix, 0, modelMatrix, 0);
+    private void hideCue() {
+        releaseBitmap();
+        showingQuads = false;
+        generation++;
+    }
 
+    /**
+     * @return <code>true</code> if a cue was drawn, leaving no program bound
+     */
+    boolean render(float width, float height) {
 
+        synchronized (lock) {
+            if (showingQuads) {
+                updateMatrices(width, height, maxWidth, (int) Math.ceil(layout.height()));
+                renderQuads();
+                return true;
+            } else if (null != bitmap) {
+                updateMatrices(width, height, bitmap.getWidth(), bitmap.getHeight());
                 renderBitmap(bitmap);
+                return true;
             }
         }
+        return false;
+    }
+
+    private GlyphAtlas atlas() {
+        if (null == atlas) atlas = new GlyphAtlas(fontFace, spToPx(textSize, context));
+        return atlas;
+    }
+
+    /**
+     * Recompute the MVP matrix and quad vertices, but only if the surface or bitmap size changed since last frame.
+     * Package private for the allocation test.
+     */
+    void updateMatrices(float width, float height, int bitmapWidth, int bitmapHeight) {
+        if (width == lastSurfaceWidth && height == lastSurfaceHeight
+                && bitmapWidth == lastBitmapWidth && bitmapHeight == lastBitmapHeight)
+            return;
+
+        lastSurfaceWidth = width;
+        lastSurfaceHeight = height;
+        lastBitmapWidth = bitmapWidth;
+        lastBitmapHeight = bitmapHeight;
+
+        final float[] transformMatrix = transformer.reset()
+                .translate(0, (bitmapHeight - height) / 2 + 30, 0)
+                .scale(1.0f, 1.0f, 1.0f)
+                .rotateAroundX(180)
+                .build();
+
+        Matrix.multiplyMM(modelMatrix, 0, IDENTITY_MATRIX, 0, transformMatrix, 0);
+
+        float near = -1.0f, far = 1.0f,
+                right = width / 2,
+                top = height /2;
+
+        Matrix.orthoM(projectionMatrix, 0,
+                -right, right,
+                -top, top,
+                near, far);
+
+        Matrix.multiplyMM(scratchMatrix, 0, projectionMatrix, 0, modelMatrix, 0);
+
+        final float halfWidth = bitmapWidth / 2f;
+        final float halfHeight = bitmapHeight / 2f;
+
+        vertexArray[0] = -halfWidth;    // 0 bottom left
+        vertexArray[1] = -halfHeight;
+        vertexArray[2] = +halfWidth;    // 1 bottom right
+        vertexArray[3] = -halfHeight;
+        vertexArray[4] = -halfWidth;    // 2 top left
+        vertexArray[5] = +halfHeight;
+        vertexArray[6] = +halfWidth;    // 3 top right
+        vertexArray[7] = +halfHeight;
+
+        vertexBuffer.clear();
+        vertexBuffer.put(vertexArray).position(0);
     }
 
     private static int spToPx(float sp, Context context) {
@@ -287,32 +420,19 @@ final class SubtitlesRenderer {
         return bitmap;
     }
 
-    private void renderBitmap(Bitmap bitmap) {
-
-        float width = bitmap.getWidth();
-        float height = bitmap.getHeight();
-
-        float[] vertexArray = new float[]{
-                -width / 2f, -height / 2f,   // 0 bottom left
-                +width / 2f, -height / 2f,   // 1 bottom right
-                -width / 2f, +height / 2f,   // 2 top left
-                +width / 2f, +height / 2f,   // 3 top right
-        };
-        float[] texArray = new float[]{
-                0.0f, 0.0f,     // 0 bottom left
-                1.0f, 0.0f,     // 1 bottom right
-                0.0f, 1.0f,     // 2 top left
-                1.0f, 1.0f      // 3 top right
-        };
-
-        FloatBuffer vertexBuffer = createFloatBuffer(vertexArray);
-        FloatBuffer texBuffer = createFloatBuffer(texArray);
-
+    /**
+     * Package private for the allocation test.
+     */
+    void renderBitmap(Bitmap bitmap) {
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GL_TEXTURE_2D, mTextureId);
 
-        GLUtils.texImage2D(GL_TEXTURE_2D, 0, GLES20.GL_RGBA, bitmap, 0);
+        // only upload when the cue changed; otherwise the texture already holds this bitmap
+        if (uploadedGeneration != generation) {
+            GLUtils.texImage2D(GL_TEXTURE_2D, 0, GLES20.GL_RGBA, bitmap, 0);
+            uploadedGeneration = generation;
+        }
 
         checkGlError("draw start");
 
@@ -337,6 +457,7 @@ final class SubtitlesRenderer {
         checkGlError("glEnableVertexAttribArray");
 
         // Connect vertexBuffer to "aPosition".
+        vertexBuffer.position(0);
         GLES20.glVertexAttribPointer(maPositionLoc, 2, GLES20.GL_FLOAT, false, 2 * 4, vertexBuffer);
         checkGlError("glVertexAttribPointer");
 
@@ -345,6 +466,7 @@ final class SubtitlesRenderer {
         checkGlError("glEnableVertexAttribArray");
 
         // Connect texBuffer to "aTextureCoord".
+        texBuffer.position(0);
         GLES20.glVertexAttribPointer(maTextureCoordLoc, 2, GLES20.GL_FLOAT, false, 2 * 4, texBuffer);
         checkGlError("glVertexAttribPointer");
 
@@ -367,9 +489,68 @@ final class SubtitlesRenderer {
 
     }
 
+    private void renderQuads() {
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GL_TEXTURE_2D, mAtlasTextureId);
+
+        // the atlas only changes when a cue brings in a glyph we haven't seen yet
+        if (uploadedAtlasGeneration != atlas.generation()) {
+            GLUtils.texImage2D(GL_TEXTURE_2D, 0, atlas.bitmap(), 0);
+            uploadedAtlasGeneration = atlas.generation();
+        }
+
+        // a cue change only costs a vertex update
+        final int floats = layout.glyphCount() * GlyphLayout.FLOATS_PER_GLYPH;
+        if (quadGeneration != generation) {
+            if (quadBuffer.capacity() < floats) {
+                quadBuffer = ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            quadBuffer.clear();
+            quadBuffer.put(layout.vertices(), 0, floats).position(0);
+            quadGeneration = generation;
+        }
+
+        checkGlError("draw start");
+
+        GLES20.glUseProgram(mAtlasProgramHandle);
+        checkGlError("glUseProgram");
+
+        GLES20.glUniformMatrix4fv(muAtlasMVPMatrixLoc, 1, false, scratchMatrix, 0);
+        GLES20.glUniformMatrix4fv(muAtlasTexMatrixLoc, 1, false, IDENTITY_MATRIX, 0);
+        checkGlError("glUniformMatrix4fv");
+
+        final int stride = GlyphLayout.FLOATS_PER_VERTEX * 4;
+
+        GLES20.glEnableVertexAttribArray(maAtlasPositionLoc);
+        quadBuffer.position(0);
+        GLES20.glVertexAttribPointer(maAtlasPositionLoc, 2, GLES20.GL_FLOAT, false, stride, quadBuffer);
+
+        GLES20.glEnableVertexAttribArray(maAtlasTextureCoordLoc);
+        quadBuffer.position(2);
+        GLES20.glVertexAttribPointer(maAtlasTextureCoordLoc, 2, GLES20.GL_FLOAT, false, stride, quadBuffer);
+        checkGlError("glVertexAttribPointer");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, layout.vertexCount());
+        checkGlError("glDrawArrays");
+
+        GLES20.glDisableVertexAttribArray(maAtlasPositionLoc);
+        GLES20.glDisableVertexAttribArray(maAtlasTextureCoordLoc);
+        GLES20.glBindTexture(GL_TEXTURE_2D, 0);
+        GLES20.glUseProgram(0);
+    }
+
     void init() {
 
         mTextureId = createTextureObject();
+        uploadedGeneration = -1;
+
+        if (glyphAtlasEnabled) {
+            mAtlasTextureId = createTextureObject();
+            GLES20.glTexParameterf(GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            uploadedAtlasGeneration = -1;
+            quadGeneration = -1;
+        }
 
     }
 
@@ -418,16 +599,16 @@ final class SubtitlesRenderer {
         //Log.d(TAG, "filt size: " + width + "x" + height + ": " + Arrays.toString(mTexOffset));
     }
 
-    private int createProgram() {
+    private int createProgram(String vertexSource, String fragmentSource) {
 
         int program = GLES20.glCreateProgram();
         if (program != 0) {
 
-            int vertexShader = loadShader(VERTEX_SHADER, GLES20.GL_VERTEX_SHADER);
+            int vertexShader = loadShader(vertexSource, GLES20.GL_VERTEX_SHADER);
             GLES20.glAttachShader(program, vertexShader);
             checkGlError("glAttachShader");
 
-            int pixelShader = loadShader(FRAGMENT_SHADER_2D, GLES20.GL_FRAGMENT_SHADER);
+            int pixelShader = loadShader(fragmentSource, GLES20.GL_FRAGMENT_SHADER);
             GLES20.glAttachShader(program, pixelShader);
             checkGlError("glAttachShader");
 
@@ -476,46 +657,6 @@ final class SubtitlesRenderer {
         return fb;
     }
 
-    private static String convertVTTtoSRT(String vtt) {
-        vtt += "\n\n"; // Just in case, to comply with regex
-        String srt = "";
-        Pattern pattern = Pattern.compile("([0-9]{2}:[0-9]{2}:[0-9]{2}[.][0-9]{3})\\s-->\\s([0-9]{2}:[0-9]{2}:[0-9]{2}[.][0-9]{3})[^\\n]*[\\n](((?!\\n\\n).)*)[\\n]{2}", Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(vtt);
-
-        SimpleDateFormat fmtVTT = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
-        SimpleDateFormat fmtSRT = new SimpleDateFormat("HH:mm:ss,SSS", Locale.US);
-
-        int index = 1;
-
-        while (matcher.find()) {
-            String timeFromStr = matcher.group(1);
-            String timeToStr = matcher.group(2);
-            String captionText = matcher.group(3);
-
-            try {
-                Date timeFrom = fmtVTT.parse(timeFromStr);
-                Date timeTo = fmtVTT.parse(timeToStr);
-
-                timeFromStr = fmtSRT.format(timeFrom);
-                timeToStr = fmtSRT.format(timeTo);
-
-                srt += String.format(Locale.US, "%d\n%s --> %s\n%s\n\n", index++, timeFromStr, timeToStr, captionText);
-
-                // onTimedText is not called at the end of caption, as it is supposed to be... Insert fake caption with "special" text to signal end of previous caption
-                timeFromStr = timeToStr;
-                timeTo = new Date(timeTo.getTime() + 10);
-                timeToStr = fmtSRT.format(timeTo);
-                srt += String.format(Locale.US, "%d\n%s --> %s\n%s\n\n", index++, timeFromStr, timeToStr, "~");
-
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
-
-        }
-
-        return srt;
-    }
-
     public static class Transformer {
 
         private float rotationMatrix[] = new float[16];
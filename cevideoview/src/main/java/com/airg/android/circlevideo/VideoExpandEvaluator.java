@@ -0,0 +1,38 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+final class VideoExpandEvaluator extends BaseVideoAnimateEvaluator {
+
+    private final float radiusChangeThreshold = SPLIT;
+
+    @Override
+    public AnimationState evaluate(float fraction, AnimationState startValue, AnimationState endValue) {
+        final float sizeFrac = fraction >= radiusChangeThreshold
+                ? 1f
+                : (radiusChangeThreshold * fraction) / radiusChangeThreshold;
+
+        final float radiusFrac = fraction <= radiusChangeThreshold
+                ? 0f
+                : (fraction - radiusChangeThreshold) / (1f - radiusChangeThreshold);
+
+        return evaluate(fraction, sizeFrac, radiusFrac, startValue, endValue);
+    }
+}
@@ -18,16 +18,19 @@
 
 package com.airg.android.circlevideo;
 
-import android.content.Context;
+import android.annotation.TargetApi;
 import android.content.res.Resources;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.graphics.Typeface;
-import android.media.MediaPlayer;
+import android.opengl.EGL14;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
+import android.os.Build;
+import android.support.annotation.RawRes;
 
 import com.airg.android.logging.Logger;
 import com.airg.android.logging.TaggedLogger;
@@ -35,12 +38,15 @@ import com.airg.android.logging.TaggedLogger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.opengles.GL10;
 
 import static com.airg.android.circlevideo.Helper.aspectRatio;
-import static com.airg.android.circlevideo.Helper.loadShaderCode;
 import static com.airg.android.circlevideo.Helper.normalize;
 import static com.airg.android.circlevideo.Helper.setCenter;
 
@@ -54,10 +60,16 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
     private static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
 
     private static final int FLOAT_SIZE_BYTES = 4;
-    private static final int TRIANGLE_VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
-    private static final int TRIANGLE_VERTICES_DATA_POS_OFFSET = 0;
-    private static final int TRIANGLE_VERTICES_DATA_UV_OFFSET = 3;
 
+    // the masked vertex shader positions these within the quad of the current RenderState
+    private static final float[] QUAD_TEXTURE_COORDS = {
+            0.f, 0.f,
+            1.f, 0.f,
+            0.f, 1.f,
+            1.f, 1.f,
+    };
+
+    // written by updateScale() under the renderer lock and published through renderStates
     private final float[] mTriangleVerticesData = {
             // X, Y, Z, U, V
             -1.0f, -1.0f, 0, 0.f, 0.f,
@@ -65,24 +77,68 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
             -1.0f, 1.0f, 0, 0.f, 1.f,
             1.0f, 1.0f, 0, 1.f, 1.f,
     };
+    private final RenderStateBuffer renderStates = new RenderStateBuffer();
 
     private final FloatBuffer mTriangleVertices;
 
-    private float[] mMVPMatrix = new float[16];
+    // GPU copies of the quad's texture coordinates, uploaded once per context, and of the disc mesh, refreshed with
+    // glBufferSubData when it changes
+    private final int[] vertexBuffers = new int[2];
+    private int vertexBufferGeneration = -1;
+    private int uploadedDiscVersion = -1;
+
+    // optional mode where an expand/collapse sets its two ends up once and then only moves fractions between them,
+    // guarded by the renderer lock
+    private boolean gpuAnimating = false;
+    private final float[] animationQuadFrom = new float[4];
+    private final float[] animationQuadTo = new float[4];
+    private float animationRadiusFrom;
+    private float animationRadiusTo;
+    private final float[] animationSizes = new float[4];
+    private final float[] animationQuadData = new float[20];
+    private final RectF animationClickBounds = new RectF();
+    private final RectF animationVideoBounds = new RectF();
+
     private float[] mSTMatrix = new float[16];
 
-    private int mProgram;
+    private static final float[] IDENTITY_MATRIX = new float[16];
+
+    static {
+        Matrix.setIdentityM(IDENTITY_MATRIX, 0);
+    }
+
+    private MaskProgram mProgram;
     private int mTextureID;
-    private int muMVPMatrixHandle;
-    private int muSTMatrixHandle;
-    private int maPositionHandle;
-    private int maTextureHandle;
-    private int muAAThresholdHandle;
-    private int muRadiusHandle;
-    private int muAspectRatioHandle;
+
+    // optional pass that shrinks the video into a mipmapped texture for small bubbles
+    private volatile float downsampleThreshold = 0f;
+    private DownsamplePass downsample;
+    private MaskProgram downsampledProgram;
+    private boolean downsampleFailed = false;
+    private boolean downsampleValid = false;
+    private int displayedVideoWidth = 0;
+    private int displayedVideoHeight = 0;
+
+    // optional mode that shades only the circle instead of the whole quad
+    private volatile boolean geometryMask = false;
+    private final DiscMesh disc = new DiscMesh();
+
+    // optional mode that limits the draw, and the clear if the window is preserved, to what the bubble can cover.
+    // Rects are in GL window coordinates, so top is the lower edge
+    private volatile boolean scissorToBubble = false;
+    private final Rect drawBounds = new Rect();
+    private final Rect clearBounds = new Rect();
+    private final Rect dirtyBounds = new Rect();
+    private volatile long lastFrameFillPixels = 0L;
+
+    // GL thread only: skips state changes that are already in effect and counts the calls the video pass makes
+    private final GlStateTracker gl = new GlStateTracker();
+    private volatile CircularExpandableVideoView.GlCallListener glCallListener;
+    // glGetError after each step is a round trip to the driver: only in debug builds or when asked for
+    private volatile boolean glValidation = false;
 
     private SurfaceTexture mSurface;
-    private boolean updateSurface = false;
+    private final AtomicBoolean updateSurface = new AtomicBoolean(false);
 
     private int surfaceWidth = 0;
     private int surfaceHeight = 0;
@@ -90,28 +146,61 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
     private int videoW = 0;
     private int videoH = 0;
 
+    // updateScale() inputs and outputs, guarded by the renderer lock; the GL thread reads renderStates instead
     private float antiAliasThreshold;
     private PointF cropCenter = new PointF();
     float cropRadius = 0f;
     private float aspectRatio = 1f;
 
+    // GL thread only: setSubtitles hands new cues over through queueEvent
     private SubtitlesRenderer subtitlesRenerer;
+    private int subtitlesWidth = 0;
 
     private final CircularExpandableVideoView view;
-
-    private String vttText;
-    private Typeface subtitlesFontFace;
-    private MediaPlayer player;
+    private final RenderScheduler scheduler;
+
+    // when set, the program and the OES texture come from the share group of SharedGlBackend
+    private final boolean sharedBackend;
+    private int textureGeneration = -1;
+
+    private volatile CueTimeline subtitleCues = CueTimeline.EMPTY;
+    private volatile Typeface subtitlesFontFace;
+
+    private volatile boolean strictSync = false;
+    // skipping is only safe when the window keeps its contents across swaps, which onSurfaceChanged tries to set up
+    private volatile boolean skipUnchangedFrames = false;
+    private boolean preservedSwap = false;
+    private volatile boolean glyphAtlasSubtitles = true;
+    private final FrameTimeHistogram pipelinedFrameTimes = new FrameTimeHistogram();
+    private final FrameTimeHistogram strictSyncFrameTimes = new FrameTimeHistogram();
+    // onDrawFrame alone, swap excluded, for every frame drawn
+    private final FrameTimeHistogram drawCpuTimes = new FrameTimeHistogram();
+    // frame times are measured start to start, so they include the swap, but only between frames drawn back to back
+    private volatile boolean continuousRendering = false;
+    private long previousFrameStart = -1L;
+    private boolean previousFrameStrict = false;
+    private boolean nextFrameFollows = false;
+
+    // set by markResumed(), cleared by the first frame drawn after it
+    private volatile long resumedAtNanos = 0L;
+    private volatile long resumeToFirstFrameNanos = -1L;
 
     private final RectF clickBounds = new RectF();
     private final RectF videoBounds = new RectF();
 
-    VideoRenderer(final CircularExpandableVideoView videoSurfaceView) {
+    VideoRenderer(final CircularExpandableVideoView videoSurfaceView, final boolean useSharedBackend) {
         view = videoSurfaceView;
+        sharedBackend = useSharedBackend;
+        scheduler = new RenderScheduler(new RenderScheduler.Target() {
+            @Override
+            public void requestRender() {
+                view.requestRender();
+            }
+        });
         mTriangleVertices = ByteBuffer.allocateDirect(
-                mTriangleVerticesData.length * FLOAT_SIZE_BYTES)
+                QUAD_TEXTURE_COORDS.length * FLOAT_SIZE_BYTES)
                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTriangleVertices.put(mTriangleVerticesData).position(0);
+        mTriangleVertices.put(QUAD_TEXTURE_COORDS).position(0);
 
         Matrix.setIdentityM(mSTMatrix, 0);
     }
@@ -124,17 +213,130 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         return surfaceHeight;
     }
 
+    RenderScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * When set, every frame ends with a blocking glFinish. Only needed for drivers that misbehave without it; by
+     * default ordering is left to eglSwapBuffers so the CPU can prepare the next frame while the GPU draws.
+     */
+    void setStrictSync(final boolean strict) {
+        strictSync = strict;
+    }
+
+    boolean isStrictSync() {
+        return strictSync;
+    }
+
+    /**
+     * Tell the renderer the view draws continuously rather than when dirty, so every frame follows the previous one.
+     */
+    void setContinuousRendering(final boolean continuous) {
+        continuousRendering = continuous;
+    }
+
+    /**
+     * Leave the previous frame on screen when asked to draw although nothing changed. Needs an EGL config that can
+     * preserve the window contents across swaps; applies from the next surface change.
+     */
+    void setSkipUnchangedFrames(final boolean skip) {
+        skipUnchangedFrames = skip;
+    }
+
+    /**
+     * Draw subtitles from a shared glyph atlas rather than rasterising a bitmap per cue. Applies from the next
+     * surface change.
+     */
+    void setGlyphAtlasSubtitles(final boolean enabled) {
+        glyphAtlasSubtitles = enabled;
+    }
+
+    /**
+     * Sample the video from a downsampled, mipmapped copy whenever it is shown smaller than <code>fraction</code> of
+     * its size in both dimensions. 0 turns the pass off.
+     */
+    void setDownsampleThreshold(final float fraction) {
+        downsampleThreshold = fraction;
+    }
+
+    /**
+     * Draw the crop as a disc with a blended edge instead of masking the whole video quad in the fragment shader.
+     * Falls back to the quad while the circle doesn't fit inside the video.
+     */
+    void setGeometryMask(final boolean enabled) {
+        geometryMask = enabled;
+    }
+
+    /**
+     * Limit drawing to the part of the window the cropped video can cover. The clear is limited too when the window
+     * keeps its contents across swaps, see {@link #setSkipUnchangedFrames(boolean)}.
+     */
+    void setScissorToBubble(final boolean enabled) {
+        scissorToBubble = enabled;
+    }
+
+    /**
+     * @return pixels cleared plus pixels the video could be drawn to in the last frame
+     */
+    long getLastFrameFillPixels() {
+        return lastFrameFillPixels;
+    }
+
+    /**
+     * Check for GL errors after each step even in release builds.
+     */
+    void setGlValidation(final boolean enabled) {
+        glValidation = enabled;
+    }
+
+    void setGlCallListener(final CircularExpandableVideoView.GlCallListener listener) {
+        glCallListener = listener;
+    }
+
+    FrameTimeHistogram getFrameTimes(final boolean strict) {
+        return strict ? strictSyncFrameTimes : pipelinedFrameTimes;
+    }
+
+    FrameTimeHistogram getDrawCpuTimes() {
+        return drawCpuTimes;
+    }
+
+    /**
+     * Start timing resume-to-first-frame. Call just before the GL thread is resumed.
+     */
+    void markResumed() {
+        resumedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds from the last {@link #markResumed()} to the end of the first frame drawn after it, or -1
+     */
+    long getResumeToFirstFrameNanos() {
+        return resumeToFirstFrameNanos;
+    }
+
     RectF getClickBounds() {
         return clickBounds;
     }
 
-    void setSubtitles(Context context, String vttText, Typeface fontFace, MediaPlayer player) {
-        this.vttText = vttText;
+    /**
+     * Called on the main thread. A subtitle renderer built after this picks the cues up in onSurfaceChanged; one that
+     * already exists gets them on the GL thread.
+     */
+    void setSubtitles(CueTimeline cues, Typeface fontFace) {
+        // font first: whoever sees the new cues sees the font that goes with them
         this.subtitlesFontFace = fontFace;
-        this.player = player;
-        if (null != subtitlesRenerer) {
-            subtitlesRenerer.setSubtitles(view.getContext(), vttText, player);
-        }
+        this.subtitleCues = null == cues ? CueTimeline.EMPTY : cues;
+        view.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (null != subtitlesRenerer) {
+                    subtitlesRenerer.setCues(subtitleCues);
+                }
+                view.requestRender();
+            }
+        });
     }
 
     synchronized void updateScale() {
@@ -163,6 +365,9 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         final float scaledVideoWidth = scale * videoWidth;
         final float scaledVideoHeight = scale * videoHeight;
 
+        // a layout change in the middle of a GPU driven animation: finish it on the CPU
+        gpuAnimating = false;
+
         if (view.animating) {
             updateCurrentTextureCoords(scaledVideoWidth, scaledVideoHeight);
         } else if (view.collapsed) {
@@ -174,92 +379,206 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
 
         aspectRatio = scaledVideoWidth / scaledVideoHeight;
 
+        displayedVideoWidth = (int) Math.ceil(scaledVideoWidth);
+        displayedVideoHeight = (int) Math.ceil(scaledVideoHeight);
+
         setCenter(cropCenter, mTriangleVerticesData[5], mTriangleVerticesData[0], mTriangleVerticesData[11], mTriangleVerticesData[1]);
 
-        if (BuildConfig.DEBUG) LOG.d("%dx%d - Center: %s, Radius: %s", view.currentWidth, view.currentHeight, cropCenter, cropRadius);
+        if (verbose()) LOG.d("%dx%d - Center: %s, Radius: %s", view.currentWidth, view.currentHeight, cropCenter, cropRadius);
 
         final float minVideoDim = Math.min(scaledVideoHeight, scaledVideoWidth);
         final float onePercent = Math.min(5f, minVideoDim / 100f);
         antiAliasThreshold = onePercent / minVideoDim;
 
-        synchronized (mTriangleVertices) {
-            mTriangleVertices.clear();
-            mTriangleVertices.put(mTriangleVerticesData).position(0);
+        renderStates.edit().set(mTriangleVerticesData[0], mTriangleVerticesData[1], mTriangleVerticesData[5],
+                mTriangleVerticesData[11], cropRadius, aspectRatio, antiAliasThreshold, videoW, videoH,
+                displayedVideoWidth, displayedVideoHeight);
+        renderStates.publish();
+        scheduler.invalidate();
+    }
+
+    /**
+     * Set up a GPU driven animation from the current layout to a bubble of <code>width</code> x <code>height</code>
+     * with the given paddings and crop radius. Until the next {@link #updateScale()} or {@link #endAnimation()},
+     * {@link #updateAnimation(float, float)} then only publishes how far along the animation is, and the vertex
+     * shader interpolates the quad and the crop radius between the two ends.
+     * <p>
+     * The quad moves in a straight line between its ends rather than through every intermediate layout, which can
+     * differ slightly where the layout clamps to the paddings.
+     */
+    synchronized void beginAnimation(final int width, final int height, final int leftPadding, final int rightPadding,
+                                     final int bottomPadding, final int topPadding, final float radius) {
+        gpuAnimating = false;
+        if (videoW == 0 || videoH == 0 || view.currentWidth == 0 || view.currentHeight == 0 || width == 0
+                || height == 0)
+            return;
+
+        layoutBubble(view.currentWidth, view.currentHeight, view.currentLeftPadding, view.currentRightPadding,
+                view.currentBottomPadding, view.currentTopPadding, 0);
+        quadCorners(animationQuadData, animationQuadFrom);
+
+        layoutBubble(width, height, leftPadding, rightPadding, bottomPadding, topPadding, 2);
+        quadCorners(animationQuadData, animationQuadTo);
+
+        animationRadiusFrom = cropRadius;
+        animationRadiusTo = radius;
+        gpuAnimating = true;
+
+        updateAnimation(0f, 0f);
+    }
+
+    /**
+     * Lay out a bubble of the given size into <code>animationQuadData</code> and store its scaled video size at
+     * <code>animationSizes[sizeIndex]</code>.
+     */
+    private void layoutBubble(final int width, final int height, final int leftPadding, final int rightPadding,
+                                 final int bottomPadding, final int topPadding, final int sizeIndex) {
+        final float scale = Math.max((float) height / videoH, (float) width / videoW);
+        final float scaledVideoWidth = scale * videoW;
+        final float scaledVideoHeight = scale * videoH;
+
+        layoutCurrent(scaledVideoWidth, scaledVideoHeight, width, height, leftPadding, rightPadding, bottomPadding,
+                topPadding, animationClickBounds, animationVideoBounds, animationQuadData);
+
+        animationSizes[sizeIndex] = scaledVideoWidth;
+        animationSizes[sizeIndex + 1] = scaledVideoHeight;
+    }
+
+    /**
+     * Move a GPU driven animation along, or lay out the current step on the CPU if there isn't one.
+     *
+     * @param geometryFraction how far the bubble size is between the two ends
+     * @param radiusFraction   how far the crop radius is between the two ends
+     */
+    synchronized void updateAnimation(final float geometryFraction, final float radiusFraction) {
+        if (!gpuAnimating) {
+            updateScale();
+            return;
         }
+
+        // only what the downsample pass and the anti-aliased edge depend on is interpolated here
+        final float scaledVideoWidth = lerp(animationSizes[0], animationSizes[2], geometryFraction);
+        final float scaledVideoHeight = lerp(animationSizes[1], animationSizes[3], geometryFraction);
+        final float minVideoDim = Math.min(scaledVideoHeight, scaledVideoWidth);
+        final float onePercent = Math.min(5f, minVideoDim / 100f);
+
+        renderStates.edit().set(animationQuadFrom, animationQuadTo, geometryFraction, animationRadiusFrom,
+                animationRadiusTo, radiusFraction, scaledVideoWidth / scaledVideoHeight, onePercent / minVideoDim,
+                videoW, videoH, (int) Math.ceil(scaledVideoWidth), (int) Math.ceil(scaledVideoHeight));
+        renderStates.publish();
+        scheduler.invalidate();
+    }
+
+    /**
+     * Stop interpolating on the GPU. The next {@link #updateScale()} lays the bubble out exactly.
+     */
+    synchronized void endAnimation() {
+        gpuAnimating = false;
+    }
+
+    private static float lerp(final float start, final float end, final float fraction) {
+        return start + fraction * (end - start);
+    }
+
+    /**
+     * Copy left, bottom, right, top of a quad laid out like <code>mTriangleVerticesData</code> into
+     * <code>corners</code>.
+     */
+    private static void quadCorners(final float[] quad, final float[] corners) {
+        corners[0] = quad[0];
+        corners[1] = quad[1];
+        corners[2] = quad[5];
+        corners[3] = quad[11];
+    }
+
+    /**
+     * Geometry logging, skipped while animating: formatting it for every animation frame costs more than the frame.
+     */
+    private boolean verbose() {
+        return BuildConfig.DEBUG && !view.animating;
     }
 
     private void updateCurrentTextureCoords(final float scaledVideoWidth, final float scaledVideoHeight) {
+        layoutCurrent(scaledVideoWidth, scaledVideoHeight, view.currentWidth, view.currentHeight,
+                view.currentLeftPadding, view.currentRightPadding, view.currentBottomPadding, view.currentTopPadding,
+                clickBounds, videoBounds, mTriangleVerticesData);
+    }
+
+    private void layoutCurrent(final float scaledVideoWidth, final float scaledVideoHeight, final int width,
+                               final int height, final int leftPadding, final int rightPadding,
+                               final int bottomPadding, final int topPadding, final RectF click, final RectF video,
+                               final float[] quad) {
         final float var = aspectRatio(scaledVideoWidth, scaledVideoHeight);
-        final float sar = aspectRatio(view.currentWidth, view.currentHeight);
+        final float sar = aspectRatio(width, height);
         final float centerX = surfaceWidth / 2f;
         final float centerY = surfaceHeight / 2f;
-        final float halfViewWidth = (float) view.currentWidth / 2f;
+        final float halfViewWidth = (float) width / 2f;
 
-        if (BuildConfig.DEBUG) {
-            LOG.d("Video: %.2fx%.2f, Current: %dx%d, Surface: %dx%d", scaledVideoWidth, scaledVideoHeight, view.currentWidth, view.currentHeight, surfaceWidth, surfaceHeight);
+        if (verbose()) {
+            LOG.d("Video: %.2fx%.2f, Current: %dx%d, Surface: %dx%d", scaledVideoWidth, scaledVideoHeight, width, height, surfaceWidth, surfaceHeight);
             LOG.d("Center: %.3f,%.3f", centerX, centerY);
-            LOG.d("Padding L:%d, B: %d, R: %d, T:%d", view.currentLeftPadding, view.currentBottomPadding, view.currentRightPadding, view.currentTopPadding);
+            LOG.d("Padding L:%d, B: %d, R: %d, T:%d", leftPadding, bottomPadding, rightPadding, topPadding);
         }
 
-        clickBounds.bottom = surfaceHeight - view.currentBottomPadding;
+        click.bottom = surfaceHeight - bottomPadding;
 
         if (var >= sar) {   // fill width, leak top & bottom
-            videoBounds.bottom = clickBounds.bottom;
+            video.bottom = click.bottom;
 
-            if (BuildConfig.DEBUG) LOG.d("Current: wider video (screen: %.3f, video: %.3f)", sar, var);
+            if (verbose()) LOG.d("Current: wider video (screen: %.3f, video: %.3f)", sar, var);
 
-            clickBounds.top = Math.max(view.currentTopPadding, clickBounds.bottom - scaledVideoHeight);
-            videoBounds.top = clickBounds.top;
+            click.top = Math.max(topPadding, click.bottom - scaledVideoHeight);
+            video.top = click.top;
 
-            clickBounds.left = Math.max(centerX - halfViewWidth, view.currentLeftPadding);
-            clickBounds.right = Math.min(clickBounds.left + view.currentWidth, surfaceWidth - view.currentRightPadding);
+            click.left = Math.max(centerX - halfViewWidth, leftPadding);
+            click.right = Math.min(click.left + width, surfaceWidth - rightPadding);
 
-            final float halfVideoWidthDiff = (scaledVideoWidth - (float) view.currentWidth) / 2f;
+            final float halfVideoWidthDiff = (scaledVideoWidth - (float) width) / 2f;
 
-            videoBounds.left = clickBounds.left - halfVideoWidthDiff;
-            videoBounds.right = clickBounds.right + halfVideoWidthDiff;
+            video.left = click.left - halfVideoWidthDiff;
+            video.right = click.right + halfVideoWidthDiff;
         } else {                // Video is wider. Fill height, leak sides
-            if (BuildConfig.DEBUG) LOG.d("Current: narrow video (screen: %.3f, video: %.3f)", sar, var);
+            if (verbose()) LOG.d("Current: narrow video (screen: %.3f, video: %.3f)", sar, var);
 
-            clickBounds.top = Math.max(clickBounds.bottom - view.currentHeight, view.currentTopPadding);
+            click.top = Math.max(click.bottom - height, topPadding);
 
-            final float halfVideoHeightDiff = (scaledVideoHeight - (float) view.currentHeight) / 2f;
+            final float halfVideoHeightDiff = (scaledVideoHeight - (float) height) / 2f;
 
-            videoBounds.bottom = clickBounds.bottom + halfVideoHeightDiff;
-            videoBounds.top = clickBounds.top - halfVideoHeightDiff;
+            video.bottom = click.bottom + halfVideoHeightDiff;
+            video.top = click.top - halfVideoHeightDiff;
 
-            clickBounds.left = Math.max(centerX - halfViewWidth, view.currentLeftPadding);
-            videoBounds.left = clickBounds.left;
+            click.left = Math.max(centerX - halfViewWidth, leftPadding);
+            video.left = click.left;
 
-            clickBounds.right = Math.min(clickBounds.left + view.currentWidth, surfaceWidth - view.currentRightPadding);
-            videoBounds.right = clickBounds.right;
+            click.right = Math.min(click.left + width, surfaceWidth - rightPadding);
+            video.right = click.right;
         }
 
-        final float centeredBottom = centerY - videoBounds.bottom;
-        final float centeredTop = centerY - videoBounds.top;
-        final float centeredLeft = videoBounds.left - centerX;
-        final float centeredRight = videoBounds.right - centerX;
+        final float centeredBottom = centerY - video.bottom;
+        final float centeredTop = centerY - video.top;
+        final float centeredLeft = video.left - centerX;
+        final float centeredRight = video.right - centerX;
 
         final float normalBottom = normalize(2f * centeredBottom, surfaceHeight);
         final float normalTop = normalize(2f * centeredTop, surfaceHeight);
         final float normalLeft = normalize(2f * centeredLeft, surfaceWidth);
         final float normalRight = normalize(2f * centeredRight, surfaceWidth);
 
-        if (BuildConfig.DEBUG) {
-            LOG.d("normalized %.3f, %.3f", normalize(view.currentWidth, surfaceWidth), normalize(view.currentHeight, surfaceHeight));
-            LOG.d("Click Left: %.3f, Bottom: %.3f, Right: %.3f, Top: %.3f", clickBounds.left, clickBounds.bottom, clickBounds.right, clickBounds.top);
-            LOG.d("Video Left: %.3f, Bottom: %.3f, Right: %.3f, Top: %.3f", videoBounds.left, videoBounds.bottom, videoBounds.right, videoBounds.top);
+        if (verbose()) {
+            LOG.d("normalized %.3f, %.3f", normalize(width, surfaceWidth), normalize(height, surfaceHeight));
+            LOG.d("Click Left: %.3f, Bottom: %.3f, Right: %.3f, Top: %.3f", click.left, click.bottom, click.right, click.top);
+            LOG.d("Video Left: %.3f, Bottom: %.3f, Right: %.3f, Top: %.3f", video.left, video.bottom, video.right, video.top);
             LOG.d("nLeft: %.3f, nBottom: %.3f, nRight: %.3f, nTop: %.3f", normalLeft, normalBottom, normalRight, normalTop);
         }
 
-        mTriangleVerticesData[0] = normalLeft;
-        mTriangleVerticesData[1] = normalBottom;
-        mTriangleVerticesData[5] = normalRight;
-        mTriangleVerticesData[6] = normalBottom;
-        mTriangleVerticesData[10] = normalLeft;
-        mTriangleVerticesData[11] = normalTop;
-        mTriangleVerticesData[15] = normalRight;
-        mTriangleVerticesData[16] = normalTop;
+        quad[0] = normalLeft;
+        quad[1] = normalBottom;
+        quad[5] = normalRight;
+        quad[6] = normalBottom;
+        quad[10] = normalLeft;
+        quad[11] = normalTop;
+        quad[15] = normalRight;
+        quad[16] = normalTop;
     }
 
     private void updateExpandedTextureCoords(final float width, final float height) {
@@ -298,70 +617,278 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
     }
 
     public void onDrawFrame(GL10 glUnused) {
-        synchronized (this) {
-            if (updateSurface) {
-                mSurface.updateTexImage();
-                mSurface.getTransformMatrix(mSTMatrix);
-                updateSurface = false;
+        // GLSurfaceView swaps after every call; with a preserved back buffer that re-posts the previous frame
+        if (!scheduler.beginFrame() && skipUnchangedFrames && preservedSwap) {
+            scheduler.onFrameSkipped();
+            previousFrameStart = -1L;
+            return;
+        }
+
+        final long frameStart = System.nanoTime();
+        final boolean strict = strictSync;
+
+        // the previous frame, its eglSwapBuffers and any wait for the display: only meaningful if this frame was due
+        // as soon as that one was done, rather than after the renderer sat idle
+        if (previousFrameStart >= 0L && nextFrameFollows && previousFrameStrict == strict)
+            getFrameTimes(strict).record(frameStart - previousFrameStart);
+
+        // nothing below takes the renderer lock, so an animation on the main thread never stalls a frame
+        final RenderState state = renderStates.latest();
+
+        // a frame arriving after this still gets latched, and is latched again next time round
+        final boolean newFrame = updateSurface.getAndSet(false);
+        if (newFrame && null != mSurface) {
+            mSurface.updateTexImage();
+            mSurface.getTransformMatrix(mSTMatrix);
+        }
+
+        final boolean downsampled = prepareDownsample(state, newFrame);
+
+        final boolean subtitles = !view.animating && !view.collapsed;
+        final boolean scissor = scissorToBubble && computeDrawBounds(state, drawBounds);
+
+        // anything outside the scissor is only known to be clear if the window was preserved and nothing was drawn
+        // there last frame
+        if (scissor && preservedSwap) {
+            clearBounds.set(drawBounds);
+            clearBounds.union(dirtyBounds);
+        } else {
+            clearBounds.set(0, 0, surfaceWidth, surfaceHeight);
+        }
+
+        if (scissor && !subtitles) dirtyBounds.set(drawBounds);
+        else dirtyBounds.set(0, 0, surfaceWidth, surfaceHeight);
+
+        gl.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        gl.setScissorTest(scissor);
+        if (scissor) {
+            GLES20.glScissor(clearBounds.left, clearBounds.top, clearBounds.width(), clearBounds.height());
+            gl.count(1);
+        }
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        gl.count(1);
+        if (scissor && !clearBounds.equals(drawBounds)) {
+            GLES20.glScissor(drawBounds.left, drawBounds.top, drawBounds.width(), drawBounds.height());
+            gl.count(1);
+        }
+
+        lastFrameFillPixels = (long) clearBounds.width() * clearBounds.height()
+                + (scissor ? (long) drawBounds.width() * drawBounds.height() : (long) surfaceWidth * surfaceHeight);
+
+        gl.setBlend(true);
+        gl.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_DST_COLOR);
+
+        if (sharedBackend) {
+            // the program and its uniforms are shared by every view in the group: set uniforms and draw atomically
+            synchronized (SharedGlBackend.get()) {
+                drawFrame(state, downsampled);
+                GLES20.glFlush();
+                gl.count(1);
             }
+        } else {
+            drawFrame(state, downsampled);
         }
 
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+        if (!subtitleCues.isEmpty()) {
+            final int position = view.currentPosition();
+            if (position >= 0) subtitlesRenerer.update(position);
+        }
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_DST_COLOR);
+        if (subtitles) {
+            // the subtitles draw from client memory, and fullscreen
+            gl.bindArrayBuffer(0);
+            gl.setScissorTest(false);
+            if (subtitlesRenerer.render(surfaceWidth, surfaceHeight)) gl.assumeProgram(0);
+        }
 
-        GLES20.glUseProgram(mProgram);
-        checkGlError("glUseProgram");
+        if (strict) {
+            GLES20.glFinish();
+            gl.count(1);
+        }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, mTextureID);
+        final int glCalls = gl.takeCallCount();
 
-        mTriangleVertices.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
-        GLES20.glVertexAttribPointer(maPositionHandle, 3, GLES20.GL_FLOAT, false,
-                TRIANGLE_VERTICES_DATA_STRIDE_BYTES, mTriangleVertices);
+        final long frameEnd = System.nanoTime();
+        scheduler.onFrameDrawn(frameEnd);
+        drawCpuTimes.record(frameEnd - frameStart);
 
-        checkGlError("glVertexAttribPointer maPosition");
-        GLES20.glEnableVertexAttribArray(maPositionHandle);
-        checkGlError("glEnableVertexAttribArray maPositionHandle");
+        previousFrameStart = frameStart;
+        previousFrameStrict = strict;
+        nextFrameFollows = continuousRendering || scheduler.isPending();
 
-        GLES20.glUniform1f(muRadiusHandle, cropRadius);
-        checkGlError("glUniform1f radius");
+        final long resumedAt = resumedAtNanos;
+        if (resumedAt != 0L) {
+            resumedAtNanos = 0L;
+            resumeToFirstFrameNanos = frameEnd - resumedAt;
+            if (BuildConfig.DEBUG) LOG.d("Resume to first frame: %.2fms", resumeToFirstFrameNanos / 1000000f);
+        }
 
-        GLES20.glUniform1f(muAspectRatioHandle, aspectRatio);
-        checkGlError("glUniform1f aspectRatio");
+        final CircularExpandableVideoView.GlCallListener callListener = glCallListener;
+        if (null != callListener) callListener.onFrameDrawn(glCalls);
+    }
 
-        GLES20.glUniform1f(muAAThresholdHandle, antiAliasThreshold);
-        checkGlError("glUniform1f antiAliasThreshold");
+    /**
+     * Decide whether this frame samples the downsampled copy, refreshing the copy if the video frame or the bubble
+     * size changed. Runs before anything is drawn to the window since it switches framebuffers.
+     */
+    private boolean prepareDownsample(final RenderState state, final boolean newFrame) {
+        final float threshold = downsampleThreshold;
+
+        if (threshold <= 0f || downsampleFailed || state.videoWidth == 0 || state.videoHeight == 0
+                || state.displayedVideoWidth >= threshold * state.videoWidth
+                || state.displayedVideoHeight >= threshold * state.videoHeight) {
+            downsampleValid = false;
+            return false;
+        }
+
+        if (null == downsample) {
+            final int copyProgram = createProgram(R.raw.downsample_vertex_shader, R.raw.downsample_fragment_shader);
+            final int maskProgram = createProgram(R.raw.masked_vertex_shader, R.raw.masked_fragment_shader_2d);
 
-        synchronized (mTriangleVertices) {
-            mTriangleVertices.position(TRIANGLE_VERTICES_DATA_UV_OFFSET);
-            GLES20.glVertexAttribPointer(maTextureHandle, 3, GLES20.GL_FLOAT, false,
-                    TRIANGLE_VERTICES_DATA_STRIDE_BYTES, mTriangleVertices);
-            checkGlError("glVertexAttribPointer maTextureHandle");
+            if (copyProgram == 0 || maskProgram == 0) {
+                LOG.e("Unable to setup downsampling shaders");
+                downsampleFailed = true;
+                return false;
+            }
+
+            downsample = new DownsamplePass(copyProgram);
+            downsampledProgram = lookupMaskProgram(maskProgram);
         }
 
-        GLES20.glEnableVertexAttribArray(maTextureHandle);
-        checkGlError("glEnableVertexAttribArray maTextureHandle");
+        final int previousTexture = downsample.texture();
+        if (!downsample.resize(state.displayedVideoWidth, state.displayedVideoHeight)) {
+            downsampleFailed = true;
+            return false;
+        }
+
+        if (newFrame || !downsampleValid || previousTexture != downsample.texture()) {
+            // the pass draws from client memory into the whole target, and leaves blending and the program changed
+            gl.bindArrayBuffer(0);
+            gl.setScissorTest(false);
+            downsample.render(mTextureID, mSTMatrix, surfaceWidth, surfaceHeight);
+            gl.reset();
+            downsampleValid = true;
+        }
+
+        return true;
+    }
+
+    private void drawFrame(final RenderState state, final boolean downsampled) {
+        if (null == mProgram) return;
+
+        if (downsampled) {
+            // the video transform was applied by the downsample pass
+            drawVideo(state, downsampledProgram, GLES20.GL_TEXTURE_2D, downsample.texture(), IDENTITY_MATRIX);
+        } else {
+            drawVideo(state, mProgram, GL_TEXTURE_EXTERNAL_OES, mTextureID, mSTMatrix);
+        }
+    }
 
-        Matrix.setIdentityM(mMVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(muSTMatrixHandle, 1, false, mSTMatrix, 0);
+    private void drawVideo(final RenderState state, final MaskProgram p, final int textureTarget, final int texture,
+                           final float[] stMatrix) {
+        // left bound after the frame: the next one usually draws with the same program
+        gl.useProgram(p.program);
+        checkGlError("glUseProgram");
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(textureTarget, texture);
+        gl.count(2);
+
+        // uniforms are program state, so only the ones that changed since this program's last draw are sent
+        p.uniform4f(gl, p.uQuadFrom, MaskProgram.QUAD_FROM, state.quadFrom);
+        p.uniform4f(gl, p.uQuadTo, MaskProgram.QUAD_TO, state.quadTo);
+        p.uniform2f(gl, p.uRadiusRange, MaskProgram.RADIUS_RANGE, state.radiusFrom, state.radiusTo);
+        p.uniform2f(gl, p.uFraction, MaskProgram.FRACTION, state.geometryFraction, state.radiusFraction);
+        checkGlError("glUniform quad");
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        checkGlError("glDrawArrays");
+        p.uniform1f(gl, p.uAspectRatio, MaskProgram.ASPECT_RATIO, state.aspectRatio);
+        checkGlError("glUniform1f aspectRatio");
+
+        p.uniform1f(gl, p.uThreshold, MaskProgram.THRESHOLD, state.antiAliasThreshold);
+        checkGlError("glUniform1f antiAliasThreshold");
 
-        GLES20.glDisableVertexAttribArray(maPositionHandle);
-        GLES20.glDisableVertexAttribArray(maTextureHandle);
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 0);
-        GLES20.glUseProgram(0);
+        p.uniformMatrix(gl, p.uMVPMatrix, p.mvpMatrix, IDENTITY_MATRIX);
+        p.uniformMatrix(gl, p.uSTMatrix, p.stMatrix, stMatrix);
 
-        if (!view.animating && !view.collapsed) {
-            subtitlesRenerer.render(surfaceWidth, surfaceHeight);
+        if (geometryMask && updateDisc(state)) {
+            gl.bindArrayBuffer(vertexBuffers[1]);
+            if (uploadedDiscVersion != disc.version()) {
+                GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, DiscMesh.SIZE_BYTES, disc.vertices());
+                gl.count(1);
+                uploadedDiscVersion = disc.version();
+            }
+            bindVertices(p);
+
+            // the fan is inside the opaque part of the circle: only the edge needs blending
+            gl.setBlend(false);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, DiscMesh.FAN_FIRST, DiscMesh.FAN_COUNT);
+            gl.setBlend(true);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, DiscMesh.RING_FIRST, DiscMesh.RING_COUNT);
+            gl.count(2);
+            checkGlError("glDrawArrays");
+        } else {
+            gl.bindArrayBuffer(vertexBuffers[0]);
+            bindVertices(p);
+
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            gl.count(1);
+            checkGlError("glDrawArrays");
         }
 
-        GLES20.glFinish();
+        GLES20.glDisableVertexAttribArray(p.aTextureCoord);
+        GLES20.glBindTexture(textureTarget, 0);
+        gl.count(2);
+    }
+
+    private void bindVertices(final MaskProgram p) {
+        GLES20.glVertexAttribPointer(p.aTextureCoord, 2, GLES20.GL_FLOAT, false, 0, 0);
+        checkGlError("glVertexAttribPointer maTextureHandle");
+        GLES20.glEnableVertexAttribArray(p.aTextureCoord);
+        checkGlError("glEnableVertexAttribArray maTextureHandle");
+        gl.count(2);
+    }
+
+    /**
+     * Fit the disc to the current quad and crop.
+     *
+     * @return <code>false</code> if the quad has to be drawn instead
+     */
+    private boolean updateDisc(final RenderState state) {
+        return disc.update(state.cropRadius(), state.aspectRatio, state.antiAliasThreshold);
+    }
+
+    /**
+     * Window area the masked video can be visible in: the circle's bounding box clipped to the video quad and the
+     * window, plus a pixel for rounding. The anti-aliased edge lies inside the circle.
+     *
+     * @return <code>false</code> if it is unknown or empty
+     */
+    private boolean computeDrawBounds(final RenderState state, final Rect bounds) {
+        if (surfaceWidth == 0 || surfaceHeight == 0 || state.videoWidth == 0 || state.videoHeight == 0) return false;
+
+        final float radius = state.cropRadius();
+        final float aspect = state.aspectRatio;
+        final float scaleU = aspect > 1f ? 1f / aspect : 1f;
+        final float scaleV = aspect < 1f ? aspect : 1f;
+        final float u0 = Math.max(0f, 0.5f - radius * scaleU);
+        final float u1 = Math.min(1f, 0.5f + radius * scaleU);
+        final float v0 = Math.max(0f, 0.5f - radius * scaleV);
+        final float v1 = Math.min(1f, 0.5f + radius * scaleV);
+
+        final float left = state.left();
+        final float bottom = state.bottom();
+        final float width = state.right() - left;
+        final float height = state.top() - bottom;
+
+        // clip space to window pixels
+        final float x0 = (left + u0 * width + 1f) * 0.5f * surfaceWidth;
+        final float x1 = (left + u1 * width + 1f) * 0.5f * surfaceWidth;
+        final float y0 = (bottom + v0 * height + 1f) * 0.5f * surfaceHeight;
+        final float y1 = (bottom + v1 * height + 1f) * 0.5f * surfaceHeight;
+
+        bounds.set((int) Math.floor(Math.min(x0, x1)) - 1, (int) Math.floor(Math.min(y0, y1)) - 1,
+                (int) Math.ceil(Math.max(x0, x1)) + 1, (int) Math.ceil(Math.max(y0, y1)) + 1);
+        return bounds.intersect(0, 0, surfaceWidth, surfaceHeight);
     }
 
     public synchronized void onSurfaceChanged(GL10 glUnused, int width, int height) {
@@ -369,63 +896,85 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         surfaceWidth = width;
         surfaceHeight = height;
 
-        subtitlesRenerer = new SubtitlesRenderer(view.getContext(), subtitlesFontFace, 32, 3 * surfaceWidth / 4);
-        if (null != vttText && null != player) {
-            subtitlesRenerer.setSubtitles(view.getContext(), vttText, player);
+        preservedSwap = skipUnchangedFrames && preserveSwapContents();
+        // a new window starts out undefined
+        dirtyBounds.set(0, 0, width, height);
+        if (BuildConfig.DEBUG && skipUnchangedFrames) LOG.d("Preserved swap: %s", preservedSwap);
+
+        // with a preserved context the subtitle textures are still valid: only rebuild if the width changed
+        if (null == subtitlesRenerer || subtitlesWidth != 3 * surfaceWidth / 4) {
+            if (null != subtitlesRenerer) {
+                subtitlesRenerer.releaseGl();
+                subtitlesRenerer.release();
+            }
+            subtitlesWidth = 3 * surfaceWidth / 4;
+            subtitlesRenerer = new SubtitlesRenderer(view.getContext(), subtitlesFontFace, 32, subtitlesWidth, scheduler,
+                    glyphAtlasSubtitles);
+            subtitlesRenerer.setCues(subtitleCues);
+            subtitlesRenerer.init();
         }
-        subtitlesRenerer.init();
 
         updateScale();
+        // the new surface has nothing on it yet, even if the video size isn't known
+        scheduler.invalidate();
+    }
+
+    /**
+     * Ask EGL to keep the current window surface's contents across eglSwapBuffers.
+     *
+     * @return <code>false</code> if the config or the driver doesn't allow it
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static boolean preserveSwapContents() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) return false;
+
+        return EGL14.eglSurfaceAttrib(EGL14.eglGetCurrentDisplay(), EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW),
+                EGL14.EGL_SWAP_BEHAVIOR, EGL14.EGL_BUFFER_PRESERVED);
     }
 
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        mProgram = createProgram();
-        if (mProgram == 0) {
+        // a new context: GL objects from the previous one, including the subtitle textures, are gone
+        synchronized (this) {
+            if (null != subtitlesRenerer) {
+                subtitlesRenerer.release();
+                subtitlesRenerer = null;
+            }
+        }
+
+        downsample = null;
+        downsampledProgram = null;
+        downsampleFailed = false;
+        downsampleValid = false;
+
+        final int program = sharedBackend ? SharedGlBackend.get().program(new SharedGlBackend.ProgramFactory() {
+            @Override
+            public int createProgram() {
+                return VideoRenderer.this.createProgram(R.raw.masked_vertex_shader, R.raw.masked_fragment_shader);
+            }
+        }) : createProgram(R.raw.masked_vertex_shader, R.raw.masked_fragment_shader);
+        if (program == 0) {
             LOG.e("Unable to setup shaders");
             return;
         }
-        maPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
-        checkGlError("glGetAttribLocation aPosition");
-        if (maPositionHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for aPosition");
-        }
-        maTextureHandle = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
-        checkGlError("glGetAttribLocation aTextureCoord");
-        if (maTextureHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for aTextureCoord");
-        }
-
-        muRadiusHandle = GLES20.glGetUniformLocation(mProgram, "uRadius");
-        checkGlError("glGetUniformLocation radius");
-        if (muRadiusHandle == -1)
-            throw new RuntimeException("Could not get attrib location for uRadius");
+        mProgram = lookupMaskProgram(program);
 
-        muAspectRatioHandle = GLES20.glGetUniformLocation(mProgram, "uAspectRatio");
-        checkGlError("glGetUniformLocation uAspectRatio");
-        if (muAspectRatioHandle == -1)
-            throw new RuntimeException("Could not get attrib location for uAspectRatio");
+        prepareVertexBuffers();
 
-        muAAThresholdHandle = GLES20.glGetUniformLocation(mProgram, "threshold");
-        checkGlError("glGetUniformLocation threshold");
-        if (muAAThresholdHandle == -1)
-            throw new RuntimeException("Could not get attrib location for threshold");
+        if (sharedBackend) {
+            final SharedGlBackend backend = SharedGlBackend.get();
 
-        muMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-        checkGlError("glGetUniformLocation uMVPMatrix");
-        if (muMVPMatrixHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for uMVPMatrix");
-        }
+            // our texture survives a context loss as long as another view kept the share group alive
+            if (mTextureID == 0 || textureGeneration != backend.generation()) {
+                mTextureID = backend.acquireTexture();
+                textureGeneration = backend.generation();
+            }
+        } else {
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
 
-        muSTMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uSTMatrix");
-        checkGlError("glGetUniformLocation uSTMatrix");
-        if (muSTMatrixHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for uSTMatrix");
+            mTextureID = textures[0];
         }
 
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-
-        mTextureID = textures[0];
         GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, mTextureID);
         checkGlError("glBindTexture mTextureID");
 
@@ -433,29 +982,84 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
          * Create the SurfaceTexture that will feed this textureID,
          * and pass it to the MediaPlayer
          */
-        mSurface = new SurfaceTexture(mTextureID);
-        mSurface.setOnFrameAvailableListener(this);
+        final SurfaceTexture surface = new SurfaceTexture(mTextureID);
+        surface.setOnFrameAvailableListener(this);
 
-        view.setSurface(mSurface);
+        view.setSurface(surface);
 
+        final SurfaceTexture previous;
         synchronized (this) {
-            updateSurface = false;
+            previous = mSurface;
+            mSurface = surface;
         }
+
+        // normally released along with the previous context already; whichever path got here, the player has
+        // moved on to the new one
+        if (null != previous) previous.release();
+        updateSurface.set(false);
+
+        gl.reset();
+        gl.takeCallCount();
+        previousFrameStart = -1L;
+        scheduler.reset();
     }
 
-    synchronized public void onFrameAvailable(SurfaceTexture surface) {
-        updateSurface = true;
+    /**
+     * Create the vertex buffers for a new context. A shared backend context may have joined the share group our
+     * buffers were made in, in which case they are still valid.
+     */
+    private void prepareVertexBuffers() {
+        final int generation = sharedBackend ? SharedGlBackend.get().generation() : -1;
+        if (sharedBackend && vertexBuffers[0] != 0 && vertexBufferGeneration == generation) return;
+
+        GLES20.glGenBuffers(2, vertexBuffers, 0);
+        vertexBufferGeneration = generation;
+
+        mTriangleVertices.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, QUAD_TEXTURE_COORDS.length * FLOAT_SIZE_BYTES, mTriangleVertices,
+                GLES20.GL_STATIC_DRAW);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffers[1]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, DiscMesh.SIZE_BYTES, null, GLES20.GL_DYNAMIC_DRAW);
+        uploadedDiscVersion = -1;
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        checkGlError("prepareVertexBuffers");
     }
 
-    private int getShaderResourceId(final int type) {
-        switch (type) {
-            case GLES20.GL_VERTEX_SHADER:
-                return R.raw.masked_vertex_shader;
-            case GLES20.GL_FRAGMENT_SHADER:
-                return R.raw.masked_fragment_shader;
-            default:
-                throw new IllegalArgumentException("Unknown shader type: " + type);
+    private MaskProgram lookupMaskProgram(final int program) {
+        final int aTextureCoord = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        checkGlError("glGetAttribLocation aTextureCoord");
+        if (aTextureCoord == -1) {
+            throw new RuntimeException("Could not get attrib location for aTextureCoord");
         }
+
+        final int uAspectRatio = uniformLocation(program, "uAspectRatio");
+        final int uThreshold = uniformLocation(program, "threshold");
+        final int uMVPMatrix = uniformLocation(program, "uMVPMatrix");
+        final int uSTMatrix = uniformLocation(program, "uSTMatrix");
+        final int uQuadFrom = uniformLocation(program, "uQuadFrom");
+        final int uQuadTo = uniformLocation(program, "uQuadTo");
+        final int uRadiusRange = uniformLocation(program, "uRadiusRange");
+        final int uFraction = uniformLocation(program, "uFraction");
+
+        // the uniforms of a shared program are also set by the other views in the group
+        return new MaskProgram(program, aTextureCoord, uMVPMatrix, uSTMatrix, uAspectRatio, uThreshold, uQuadFrom,
+                uQuadTo, uRadiusRange, uFraction, !sharedBackend);
+    }
+
+    private int uniformLocation(final int program, final String name) {
+        final int location = GLES20.glGetUniformLocation(program, name);
+        checkGlError("glGetUniformLocation " + name);
+        if (location == -1)
+            throw new RuntimeException("Could not get uniform location for " + name);
+        return location;
+    }
+
+    public void onFrameAvailable(SurfaceTexture surface) {
+        updateSurface.set(true);
+        scheduler.invalidate();
     }
 
     private int loadShader(final String source, final int shaderType) {
@@ -475,26 +1079,27 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         return shader;
     }
 
-    private int loadShader(final Resources res, final int shaderType) {
-        final String source = loadShaderCode(res, getShaderResourceId(shaderType));
-        return loadShader(source, shaderType);
-    }
-
-    private int createProgram() {
+    private int createProgram(@RawRes final int vertexShader, @RawRes final int fragmentShader) {
         final Resources resources = view.getResources();
+        final String vertexSource = ProgramCache.shaderSource(resources, vertexShader);
+        final String fragmentSource = ProgramCache.shaderSource(resources, fragmentShader);
+
+        int program = ProgramCache.load(view.getContext(), vertexSource, fragmentSource);
+        if (program != 0) return program;
 
-        int vertexShader = loadShader(resources, GLES20.GL_VERTEX_SHADER);
-        if (vertexShader == 0) {
+        int vertexShaderId = loadShader(vertexSource, GLES20.GL_VERTEX_SHADER);
+        if (vertexShaderId == 0) {
             return 0;
         }
-        int pixelShader = loadShader(resources, GLES20.GL_FRAGMENT_SHADER);
+        int pixelShader = loadShader(fragmentSource, GLES20.GL_FRAGMENT_SHADER);
         if (pixelShader == 0) {
             return 0;
         }
 
-        int program = GLES20.glCreateProgram();
+        program = GLES20.glCreateProgram();
         if (program != 0) {
-            GLES20.glAttachShader(program, vertexShader);
+            ProgramCache.prepareForLink(program);
+            GLES20.glAttachShader(program, vertexShaderId);
             checkGlError("glAttachShader");
             GLES20.glAttachShader(program, pixelShader);
             checkGlError("glAttachShader");
@@ -505,12 +1110,16 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
                 LOG.e("Could not link program:\n%s", GLES20.glGetProgramInfoLog(program));
                 GLES20.glDeleteProgram(program);
                 program = 0;
+            } else {
+                ProgramCache.store(view.getContext(), program, vertexSource, fragmentSource);
             }
         }
         return program;
     }
 
     private void checkGlError(String op) {
+        if (!BuildConfig.DEBUG && !glValidation) return;
+
         int error;
 
         while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
@@ -519,6 +1128,84 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         }
     }
 
+    /**
+     * Point the player at the SurfaceTexture again after a pause that kept the EGL context. Does nothing if no
+     * surface has been created yet.
+     */
+    synchronized void reattachSurface() {
+        if (null == mSurface) return;
+
+        try {
+            view.setSurface(mSurface);
+        } catch (IllegalStateException e) {
+            LOG.d(e);
+        }
+    }
+
+    /**
+     * Release the SurfaceTexture, delete this view's GL objects and hand the OES texture back to the shared pool.
+     * Called on the GL thread just before the context is destroyed, with the context current if that could be
+     * arranged, so no frame can still be latching from the surface.
+     */
+    void release() {
+        final SurfaceTexture surface;
+        synchronized (this) {
+            surface = mSurface;
+            mSurface = null;
+        }
+
+        if (null != surface) surface.release();
+        updateSurface.set(false);
+
+        // paused without a preserved context: whatever was only ours went with it
+        if (hasCurrentContext()) deleteGlObjects();
+
+        if (sharedBackend) SharedGlBackend.get().releaseTexture(mTextureID, textureGeneration);
+        mTextureID = 0;
+        mProgram = null;
+        vertexBuffers[0] = 0;
+        vertexBuffers[1] = 0;
+        vertexBufferGeneration = -1;
+    }
+
+    private static boolean hasCurrentContext() {
+        return ((EGL10) EGLContext.getEGL()).eglGetCurrentContext() != EGL10.EGL_NO_CONTEXT;
+    }
+
+    /**
+     * Delete the GL objects only this view uses. The masked video program and the OES texture of a shared backend
+     * belong to the share group.
+     */
+    private void deleteGlObjects() {
+        synchronized (this) {
+            if (null != subtitlesRenerer) {
+                subtitlesRenerer.releaseGl();
+                subtitlesRenerer.release();
+                subtitlesRenerer = null;
+            }
+        }
+
+        if (null != downsample) {
+            downsample.release();
+            GLES20.glDeleteProgram(downsampledProgram.program);
+            downsample = null;
+            downsampledProgram = null;
+            downsampleValid = false;
+        }
+
+        if (!sharedBackend || vertexBufferGeneration == SharedGlBackend.get().generation())
+            GLES20.glDeleteBuffers(2, vertexBuffers, 0);
+
+        if (!sharedBackend) {
+            if (null != mProgram) GLES20.glDeleteProgram(mProgram.program);
+            final int[] textures = {mTextureID};
+            GLES20.glDeleteTextures(1, textures, 0);
+        }
+
+        gl.reset();
+        checkGlError("deleteGlObjects");
+    }
+
     synchronized boolean insideClickBounds(final float x, final float y) {
         return clickBounds.contains(x, y);
     }
@@ -530,4 +1217,89 @@ final class VideoRenderer implements GLSurfaceView.Renderer, SurfaceTexture.OnFr
         updateScale();
     }
 
+    /**
+     * A linked masked video program, the locations of its inputs and, unless other renderers set them too, the
+     * uniform values last sent to it.
+     */
+    private static final class MaskProgram {
+        // offsets into values
+        static final int QUAD_FROM = 0;
+        static final int QUAD_TO = 4;
+        static final int RADIUS_RANGE = 8;
+        static final int FRACTION = 10;
+        static final int ASPECT_RATIO = 12;
+        static final int THRESHOLD = 13;
+        private static final int VALUE_COUNT = 14;
+
+        final int program;
+        final int aTextureCoord;
+        final int uMVPMatrix;
+        final int uSTMatrix;
+        final int uAspectRatio;
+        final int uThreshold;
+        final int uQuadFrom;
+        final int uQuadTo;
+        final int uRadiusRange;
+        final int uFraction;
+
+        // NaN until sent, so the first comparison always fails
+        private final boolean cacheUniforms;
+        private final float[] values = new float[VALUE_COUNT];
+        final float[] mvpMatrix = new float[16];
+        final float[] stMatrix = new float[16];
+
+        MaskProgram(int program, int aTextureCoord, int uMVPMatrix, int uSTMatrix, int uAspectRatio, int uThreshold,
+                    int uQuadFrom, int uQuadTo, int uRadiusRange, int uFraction, boolean cacheUniforms) {
+            this.program = program;
+            this.aTextureCoord = aTextureCoord;
+            this.uMVPMatrix = uMVPMatrix;
+            this.uSTMatrix = uSTMatrix;
+            this.uAspectRatio = uAspectRatio;
+            this.uThreshold = uThreshold;
+            this.uQuadFrom = uQuadFrom;
+            this.uQuadTo = uQuadTo;
+            this.uRadiusRange = uRadiusRange;
+            this.uFraction = uFraction;
+            this.cacheUniforms = cacheUniforms;
+
+            Arrays.fill(values, Float.NaN);
+            Arrays.fill(mvpMatrix, Float.NaN);
+            Arrays.fill(stMatrix, Float.NaN);
+        }
+
+        void uniform1f(final GlStateTracker gl, final int location, final int offset, final float x) {
+            if (cacheUniforms && values[offset] == x) return;
+
+            GLES20.glUniform1f(location, x);
+            values[offset] = x;
+            gl.count(1);
+        }
+
+        void uniform2f(final GlStateTracker gl, final int location, final int offset, final float x, final float y) {
+            if (cacheUniforms && values[offset] == x && values[offset + 1] == y) return;
+
+            GLES20.glUniform2f(location, x, y);
+            values[offset] = x;
+            values[offset + 1] = y;
+            gl.count(1);
+        }
+
+        void uniform4f(final GlStateTracker gl, final int location, final int offset, final float[] xyzw) {
+            if (cacheUniforms && values[offset] == xyzw[0] && values[offset + 1] == xyzw[1]
+                    && values[offset + 2] == xyzw[2] && values[offset + 3] == xyzw[3])
+                return;
+
+            GLES20.glUniform4f(location, xyzw[0], xyzw[1], xyzw[2], xyzw[3]);
+            System.arraycopy(xyzw, 0, values, offset, 4);
+            gl.count(1);
+        }
+
+        void uniformMatrix(final GlStateTracker gl, final int location, final float[] sent, final float[] matrix) {
+            if (cacheUniforms && Arrays.equals(sent, matrix)) return;
+
+            GLES20.glUniformMatrix4fv(location, 1, false, matrix, 0);
+            System.arraycopy(matrix, 0, sent, 0, 16);
+            gl.count(1);
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import android.net.Uri;
+
+import java.util.List;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * One encoding of a video, e.g. an HLS variant or a separately encoded file, and its frame size in pixels.
+ *
+ * @see CircularExpandableVideoView#setVideoRenditions(List)
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class VideoRendition {
+    private final Uri uri;
+    private final int width;
+    private final int height;
+
+    public VideoRendition(final Uri renditionUri, final int frameWidth, final int frameHeight) {
+        if (frameWidth <= 0 || frameHeight <= 0)
+            throw new IllegalArgumentException("Invalid rendition size: " + frameWidth + "x" + frameHeight);
+
+        uri = renditionUri;
+        width = frameWidth;
+        height = frameHeight;
+    }
+
+    int pixels() {
+        return width * height;
+    }
+
+    /**
+     * @param renditions sorted smallest first
+     * @return the smallest rendition that covers <code>w</code> x <code>h</code> without upscaling, or the largest
+     * one if none does
+     */
+    static VideoRendition pick(final List<VideoRendition> renditions, final int w, final int h) {
+        for (int i = 0; i < renditions.size(); i++) {
+            final VideoRendition rendition = renditions.get(i);
+            if (rendition.width >= w && rendition.height >= h) return rendition;
+        }
+
+        return renditions.get(renditions.size() - 1);
+    }
+}
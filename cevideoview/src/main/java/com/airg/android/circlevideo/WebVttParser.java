@@ -0,0 +1,217 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass, streaming WebVTT parser. Reads cue timings and payload text; cue settings, NOTE, STYLE and REGION
+ * blocks are ignored. Every line is looked at once and timestamps are parsed arithmetically, so parsing is linear in
+ * the size of the input. Cues are handed to a {@link CueListener} as soon as their block ends.
+ */
+final class WebVttParser {
+
+    interface CueListener {
+        void onCue(SubtitleCue cue);
+    }
+
+    private static final int NOT_A_TIMESTAMP = -1;
+
+    private final CueListener listener;
+    private final StringBuilder text = new StringBuilder();
+
+    private boolean inCue = false;
+    private long cueStart;
+    private long cueEnd;
+
+    private WebVttParser(final CueListener cueListener) {
+        listener = cueListener;
+    }
+
+    static CueTimeline parse(final CharSequence vtt) {
+        if (null == vtt) return CueTimeline.EMPTY;
+
+        final Collector collector = new Collector();
+        parse(vtt, collector);
+        return collector.timeline();
+    }
+
+    static CueTimeline parse(final Reader in) throws IOException {
+        final Collector collector = new Collector();
+        parse(in, collector);
+        return collector.timeline();
+    }
+
+    static void parse(final CharSequence vtt, final CueListener listener) {
+        final WebVttParser parser = new WebVttParser(listener);
+        final int length = vtt.length();
+
+        int lineStart = 0;
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && vtt.charAt(lineEnd) != '\n' && vtt.charAt(lineEnd) != '\r')
+                lineEnd++;
+
+            parser.line(vtt, lineStart, lineEnd);
+
+            if (lineEnd < length - 1 && vtt.charAt(lineEnd) == '\r' && vtt.charAt(lineEnd + 1) == '\n')
+                lineEnd++;
+
+            lineStart = lineEnd + 1;
+        }
+
+        parser.finish();
+    }
+
+    static void parse(final Reader in, final CueListener listener) throws IOException {
+        final WebVttParser parser = new WebVttParser(listener);
+        final BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+
+        String line;
+        while (null != (line = reader.readLine()))
+            parser.line(line, 0, line.length());
+
+        parser.finish();
+    }
+
+    private void line(final CharSequence s, int start, final int end) {
+        if (start < end && s.charAt(start) == '\uFEFF') start++;
+
+        if (isBlank(s, start, end)) {
+            emit();
+            return;
+        }
+
+        if (inCue) {
+            if (text.length() > 0) text.append('\n');
+            text.append(s, start, end);
+            return;
+        }
+
+        final int arrow = indexOfArrow(s, start, end);
+        if (arrow < 0) return;  // header, cue identifier, or a line inside a NOTE/STYLE block
+
+        final long startMs = parseTimestamp(s, start, arrow);
+        final long endMs = parseTimestamp(s, arrow + 3, end);
+
+        if (startMs == NOT_A_TIMESTAMP || endMs == NOT_A_TIMESTAMP || endMs < startMs) return;
+
+        inCue = true;
+        cueStart = startMs;
+        cueEnd = endMs;
+        text.setLength(0);
+    }
+
+    private void finish() {
+        emit();
+    }
+
+    private void emit() {
+        if (!inCue) return;
+
+        inCue = false;
+        listener.onCue(new SubtitleCue(cueStart, cueEnd, text.toString()));
+        text.setLength(0);
+    }
+
+    private static boolean isBlank(final CharSequence s, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static int indexOfArrow(final CharSequence s, final int start, final int end) {
+        for (int i = start; i + 2 < end; i++) {
+            if (s.charAt(i) == '-' && s.charAt(i + 1) == '-' && s.charAt(i + 2) == '>') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the first <code>[hh:]mm:ss.ttt</code> timestamp in <code>s[start, end)</code>, skipping leading
+     * whitespace. Anything after the timestamp (e.g. cue settings) is ignored.
+     *
+     * @return the timestamp in milliseconds, or -1 if there is none
+     */
+    static long parseTimestamp(final CharSequence s, final int start, final int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(s.charAt(i))) i++;
+
+        long total = 0;
+        long value = 0;
+        int digits = 0;
+        int fields = 0;
+
+        for (; i < end; i++) {
+            final char c = s.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if (c == ':') {
+                if (digits == 0 || fields == 2) return NOT_A_TIMESTAMP;
+                total = total * 60 + value;
+                value = 0;
+                digits = 0;
+                fields++;
+            } else if (c == '.') {
+                if (digits == 0 || fields == 0) return NOT_A_TIMESTAMP;
+                total = total * 60 + value;
+                return parseMillis(s, i + 1, end, total * 1000L);
+            } else {
+                return NOT_A_TIMESTAMP;
+            }
+        }
+
+        return NOT_A_TIMESTAMP;
+    }
+
+    private static long parseMillis(final CharSequence s, final int start, final int end, final long secondsAsMillis) {
+        int millis = 0;
+        int i = start;
+
+        for (; i < end && i - start < 3; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') return NOT_A_TIMESTAMP;
+            millis = millis * 10 + (c - '0');
+        }
+
+        if (i - start != 3) return NOT_A_TIMESTAMP;
+
+        return secondsAsMillis + millis;
+    }
+
+    private static final class Collector implements CueListener {
+        private final List<SubtitleCue> cues = new ArrayList<>();
+
+        @Override
+        public void onCue(final SubtitleCue cue) {
+            cues.add(cue);
+        }
+
+        CueTimeline timeline() {
+            return new CueTimeline(cues);
+        }
+    }
+}
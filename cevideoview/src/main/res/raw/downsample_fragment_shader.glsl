@@ -0,0 +1,30 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+#extension GL_OES_EGL_image_external : require
+precision mediump float;
+varying vec2 vTap0;
+varying vec2 vTap1;
+varying vec2 vTap2;
+varying vec2 vTap3;
+uniform samplerExternalOES sTexture;
+
+void main() {
+    gl_FragColor = 0.25 * (texture2D(sTexture, vTap0) + texture2D(sTexture, vTap1)
+            + texture2D(sTexture, vTap2) + texture2D(sTexture, vTap3));
+}
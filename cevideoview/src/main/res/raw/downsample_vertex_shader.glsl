@@ -0,0 +1,36 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+uniform mat4 uSTMatrix;
+uniform vec2 uTexelOffset;
+attribute vec4 aPosition;
+attribute vec4 aTextureCoord;
+varying vec2 vTap0;
+varying vec2 vTap1;
+varying vec2 vTap2;
+varying vec2 vTap3;
+
+// four taps a quarter of a target texel around the centre: with bilinear filtering each one averages 2x2 source
+// texels, together a box filter good for shrinking by up to 4x
+void main() {
+    gl_Position = aPosition;
+    vTap0 = (uSTMatrix * (aTextureCoord + vec4(-uTexelOffset.x, -uTexelOffset.y, 0.0, 0.0))).xy;
+    vTap1 = (uSTMatrix * (aTextureCoord + vec4(uTexelOffset.x, -uTexelOffset.y, 0.0, 0.0))).xy;
+    vTap2 = (uSTMatrix * (aTextureCoord + vec4(-uTexelOffset.x, uTexelOffset.y, 0.0, 0.0))).xy;
+    vTap3 = (uSTMatrix * (aTextureCoord + vec4(uTexelOffset.x, uTexelOffset.y, 0.0, 0.0))).xy;
+}
@@ -20,7 +20,7 @@
 precision mediump float;
 varying vec2 vTextureCoord;
 uniform float threshold;
-uniform float uRadius;
+varying float vRadius;
 uniform float uAspectRatio;
 uniform samplerExternalOES sTexture;
 
@@ -37,7 +37,7 @@ void main() {
         ac = vec2 (vTextureCoord.x - 0.5, vTextureCoord.y - 0.5);
     }
 
-    float dist = uRadius - sqrt (ac.x * ac.x + ac.y * ac.y);
+    float dist = vRadius - sqrt (ac.x * ac.x + ac.y * ac.y);
 
     if (threshold > 0.0 && dist > threshold) {
         gl_FragColor = actual;
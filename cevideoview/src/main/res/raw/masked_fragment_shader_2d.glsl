@@ -0,0 +1,46 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+precision mediump float;
+varying vec2 vTextureCoord;
+uniform float threshold;
+varying float vRadius;
+uniform float uAspectRatio;
+uniform sampler2D sTexture;
+
+void main() {
+    vec4 gone = vec4 (0.0, 0.0, 0.0, 0.0);
+    vec4 actual = texture2D(sTexture, vTextureCoord);
+
+    vec2 ac;
+    if (uAspectRatio > 1.0) {
+        ac = vec2 ((vTextureCoord.x - 0.5) * uAspectRatio, vTextureCoord.y - 0.5);
+    } else if (uAspectRatio < 1.0) {
+        ac = vec2 (vTextureCoord.x - 0.5, (vTextureCoord.y - 0.5) / uAspectRatio);
+    } else {
+        ac = vec2 (vTextureCoord.x - 0.5, vTextureCoord.y - 0.5);
+    }
+
+    float dist = vRadius - sqrt (ac.x * ac.x + ac.y * ac.y);
+
+    if (threshold > 0.0 && dist > threshold) {
+        gl_FragColor = actual;
+    } else {
+        gl_FragColor = mix (gone, actual, dist / threshold);
+    }
+}
\ No newline at end of file
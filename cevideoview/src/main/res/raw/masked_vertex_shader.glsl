@@ -19,13 +19,22 @@
 uniform mat4 uMVPMatrix;
 uniform mat4 uSTMatrix;
 uniform float threshold;
-uniform float uRadius;
 uniform float uAspectRatio;
-attribute vec4 aPosition;
+// the video quad as left, bottom, right, top in clip space at the start and the end of an animation, and the crop
+// radius at both ends. Equal ends when not animating
+uniform vec4 uQuadFrom;
+uniform vec4 uQuadTo;
+uniform vec2 uRadiusRange;
+// x: geometry, y: crop radius
+uniform vec2 uFraction;
 attribute vec4 aTextureCoord;
 varying vec2 vTextureCoord;
+varying float vRadius;
 
+// positions follow from the texture coordinates, so the vertex data never changes with the layout
 void main() {
-    gl_Position = uMVPMatrix * aPosition;
+    vec4 quad = mix(uQuadFrom, uQuadTo, uFraction.x);
+    gl_Position = uMVPMatrix * vec4(mix(quad.xy, quad.zw, aTextureCoord.xy), 0.0, 1.0);
     vTextureCoord = (uSTMatrix * aTextureCoord).xy;
+    vRadius = mix(uRadiusRange.x, uRadiusRange.y, uFraction.y);
 }
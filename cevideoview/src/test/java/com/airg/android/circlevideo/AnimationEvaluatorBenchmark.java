@@ -0,0 +1,162 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Cost of one expand or collapse animation step in the evaluators. Prints the time per step, which depends on the
+ * machine and is not checked; fails if a step allocates.
+ * <p>
+ * As in {@link SubtitlesRendererAllocationTest}, steps run in rounds and the quietest round has to allocate nothing,
+ * since the JVM allocates a little on its own while it compiles the loop.
+ */
+public class AnimationEvaluatorBenchmark {
+
+    private static final int ROUNDS = 10;
+    // a step per frame over a long animation, many times over
+    private static final int STEPS = 10000;
+    private static final int RUNS = 7;
+
+    private com.sun.management.ThreadMXBean threads;
+    private AnimationState collapsed;
+    private AnimationState expanded;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        collapsed = state(240, 240, 0.5f, 0f, 16);
+        expanded = state(1080, 1920, 0.1f, 1f, 0);
+    }
+
+    private static AnimationState state(final int width, final int height, final float radius, final float volume,
+                                        final int padding) {
+        final AnimationState state = new AnimationState();
+        state.width = width;
+        state.height = height;
+        state.cropRadius = radius;
+        state.volume = volume;
+        state.paddingLeft = padding;
+        state.paddingRight = padding;
+        state.paddingTop = padding;
+        state.paddingBottom = padding;
+        return state;
+    }
+
+    /**
+     * One animation's worth of steps from <code>from</code> to <code>to</code>.
+     *
+     * @return something depending on every step, so none of them can be optimised away
+     */
+    private static float animate(final BaseVideoAnimateEvaluator evaluator, final AnimationState from,
+                                 final AnimationState to) {
+        float sink = 0f;
+        for (int i = 0; i <= STEPS; i++) {
+            final AnimationState step = evaluator.evaluate((float) i / STEPS, from, to);
+            sink += step.width + step.cropRadius + step.volume + step.paddingTop;
+        }
+        return sink;
+    }
+
+    @Test
+    public void stepsEndOnTheTargetState() {
+        final AnimationState end = new VideoExpandEvaluator().evaluate(1f, collapsed, expanded);
+        assertEquals(expanded.width, end.width);
+        assertEquals(expanded.height, end.height);
+        assertEquals(expanded.cropRadius, end.cropRadius, 1e-6f);
+        assertEquals(expanded.volume, end.volume, 1e-6f);
+
+        final AnimationState start = new VideoCollapseEvaluator().evaluate(0f, expanded, collapsed);
+        assertEquals(expanded.width, start.width);
+        assertEquals(expanded.cropRadius, start.cropRadius, 1e-6f);
+    }
+
+    @Test
+    public void stepsAllocateNothing() {
+        final BaseVideoAnimateEvaluator expand = new VideoExpandEvaluator();
+        final BaseVideoAnimateEvaluator collapse = new VideoCollapseEvaluator();
+        long least = Long.MAX_VALUE;
+        float sink = 0f;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allocated = allocatedBytes();
+            sink += animate(expand, collapsed, expanded);
+            sink += animate(collapse, expanded, collapsed);
+            least = Math.min(least, allocatedBytes() - allocated - overhead());
+        }
+
+        assertTrue(sink > 0f);
+        assertEquals(0L, least);
+    }
+
+    @Test
+    public void stepCost() {
+        final BaseVideoAnimateEvaluator expand = new VideoExpandEvaluator();
+        final BaseVideoAnimateEvaluator collapse = new VideoCollapseEvaluator();
+        float sink = 0f;
+
+        // warm up
+        for (int round = 0; round < ROUNDS; round++) {
+            sink += animate(expand, collapsed, expanded);
+            sink += animate(collapse, expanded, collapsed);
+        }
+
+        final double[] runs = new double[RUNS];
+        for (int r = 0; r < RUNS; r++) {
+            final long start = System.nanoTime();
+            sink += animate(expand, collapsed, expanded);
+            sink += animate(collapse, expanded, collapsed);
+            runs[r] = (double) (System.nanoTime() - start) / (2 * (STEPS + 1));
+        }
+
+        Arrays.sort(runs);
+        final double stepNanos = runs[RUNS / 2];
+        System.out.println(String.format(Locale.US, "animation step: %.1fns", stepNanos));
+
+        assertTrue(sink > 0f);
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return bytes the two measurements themselves allocate
+     */
+    private long overhead() {
+        final long first = allocatedBytes();
+        return allocatedBytes() - first;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CueTimelineTest {
+
+    private static SubtitleCue cue(final long start, final long end) {
+        return new SubtitleCue(start, end, start + "-" + end);
+    }
+
+    private static CueTimeline timeline(final SubtitleCue... cues) {
+        return new CueTimeline(Arrays.asList(cues));
+    }
+
+    @Test
+    public void emptyTimelineHasNoCue() {
+        assertEquals(CueTimeline.NO_CUE, CueTimeline.EMPTY.indexAt(0L));
+        assertEquals(CueTimeline.NO_CUE, new CueTimeline(Collections.<SubtitleCue>emptyList()).indexAt(1000L));
+    }
+
+    @Test
+    public void cueShowsFromStartUntilJustBeforeEnd() {
+        final CueTimeline cues = timeline(cue(1000L, 2000L));
+
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(999L));
+        assertEquals(0, cues.indexAt(1000L));
+        assertEquals(0, cues.indexAt(1999L));
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(2000L));
+    }
+
+    @Test
+    public void adjacentCuesHandOverAtTheBoundary() {
+        final CueTimeline cues = timeline(cue(0L, 1000L), cue(1000L, 2000L));
+
+        assertEquals(0, cues.indexAt(999L));
+        assertEquals(1, cues.indexAt(1000L));
+    }
+
+    @Test
+    public void gapBetweenCuesShowsNothing() {
+        final CueTimeline cues = timeline(cue(0L, 1000L), cue(3000L, 4000L));
+
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(2000L));
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(5000L));
+    }
+
+    @Test
+    public void overlappingCuePrefersTheLatestStart() {
+        final CueTimeline cues = timeline(cue(0L, 5000L), cue(1000L, 2000L));
+
+        assertEquals(0, cues.indexAt(500L));
+        assertEquals(1, cues.indexAt(1500L));
+        // the short cue is over: the long one that started earlier is still showing
+        assertEquals(0, cues.indexAt(2000L));
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(5000L));
+    }
+
+    @Test
+    public void longCueIsFoundBehindManyShortOnes() {
+        final SubtitleCue[] cues = new SubtitleCue[101];
+        cues[0] = cue(0L, 100000L);
+        for (int i = 1; i <= 100; i++)
+            cues[i] = cue(i * 1000L, i * 1000L + 100L);
+
+        final CueTimeline timeline = timeline(cues);
+
+        assertEquals(50, timeline.indexAt(50050L));
+        assertEquals(0, timeline.indexAt(50500L));
+    }
+
+    @Test
+    public void sortsByStartKeepingFileOrderForTies() {
+        final SubtitleCue late = cue(5000L, 6000L);
+        final SubtitleCue first = new SubtitleCue(1000L, 3000L, "first");
+        final SubtitleCue second = new SubtitleCue(1000L, 2000L, "second");
+
+        final CueTimeline cues = timeline(late, first, second);
+
+        assertSame(first, cues.get(0));
+        assertSame(second, cues.get(1));
+        assertSame(late, cues.get(2));
+
+        // both started at 1000: the later one in the file wins while it shows
+        assertEquals(1, cues.indexAt(1500L));
+        assertEquals(0, cues.indexAt(2500L));
+    }
+
+    @Test
+    public void zeroLengthCueNeverShows() {
+        final CueTimeline cues = timeline(cue(1000L, 1000L));
+
+        assertEquals(CueTimeline.NO_CUE, cues.indexAt(1000L));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.airg.android.circlevideo.FrameScheduler.Decision.DROP;
+import static com.airg.android.circlevideo.FrameScheduler.Decision.RENDER;
+import static com.airg.android.circlevideo.FrameScheduler.Decision.WAIT;
+import static org.junit.Assert.assertEquals;
+
+public class FrameSchedulerTest {
+
+    private static final long FRAME_US = 33333L;
+    private static final long MS = 1000000L;
+
+    private long now;
+    private FrameScheduler frames;
+
+    @Before
+    public void setUp() {
+        now = 1000 * MS;
+        frames = new FrameScheduler(new FrameScheduler.Clock() {
+            @Override
+            public long nanoTime() {
+                return now;
+            }
+        }, FrameScheduler.DEFAULT_LATE_THRESHOLD_NANOS);
+    }
+
+    @Test
+    public void firstFrameRendersImmediately() {
+        assertEquals(RENDER, frames.decide(5000000L));
+        assertEquals(1, frames.renderedFrames());
+    }
+
+    @Test
+    public void earlyFrameWaitsUntilDue() {
+        frames.decide(0L);
+
+        assertEquals(WAIT, frames.decide(FRAME_US));
+        assertEquals(FRAME_US * 1000L, frames.waitNanos());
+
+        now += 20 * MS;
+        assertEquals(WAIT, frames.decide(FRAME_US));
+        assertEquals(FRAME_US * 1000L - 20 * MS, frames.waitNanos());
+
+        now += frames.waitNanos();
+        assertEquals(RENDER, frames.decide(FRAME_US));
+        assertEquals(2, frames.renderedFrames());
+    }
+
+    @Test
+    public void frameWithinEarlyToleranceRenders() {
+        frames.decide(0L);
+
+        now += FRAME_US * 1000L - FrameScheduler.EARLY_TOLERANCE_NANOS;
+        assertEquals(RENDER, frames.decide(FRAME_US));
+    }
+
+    @Test
+    public void slightlyLateFrameRenders() {
+        frames.decide(0L);
+
+        now += FRAME_US * 1000L + FrameScheduler.DEFAULT_LATE_THRESHOLD_NANOS;
+        assertEquals(RENDER, frames.decide(FRAME_US));
+        assertEquals(0, frames.droppedFrames());
+    }
+
+    @Test
+    public void lateFrameIsDropped() {
+        frames.decide(0L);
+
+        now += FRAME_US * 1000L + FrameScheduler.DEFAULT_LATE_THRESHOLD_NANOS + 1;
+        assertEquals(DROP, frames.decide(FRAME_US));
+        assertEquals(1, frames.droppedFrames());
+        assertEquals(1, frames.renderedFrames());
+
+        // the next frame is late too, but not by enough to drop it
+        assertEquals(RENDER, frames.decide(FRAME_US * 2));
+        assertEquals(1, frames.droppedFrames());
+    }
+
+    @Test
+    public void tooManyDropsRenderAndReanchor() {
+        frames.decide(0L);
+        now += 1000 * MS;
+
+        long pts = 0L;
+        for (int i = 1; i < FrameScheduler.MAX_CONSECUTIVE_DROPS; i++) {
+            pts += FRAME_US;
+            assertEquals("frame " + i, DROP, frames.decide(pts));
+        }
+
+        pts += FRAME_US;
+        assertEquals(RENDER, frames.decide(pts));
+        assertEquals(FrameScheduler.MAX_CONSECUTIVE_DROPS - 1, frames.droppedFrames());
+
+        // timed from the frame that was forced out
+        assertEquals(WAIT, frames.decide(pts + FRAME_US));
+        assertEquals(FRAME_US * 1000L, frames.waitNanos());
+    }
+
+    @Test
+    public void renderResetsTheDropRun() {
+        frames.decide(0L);
+        final long late = FrameScheduler.DEFAULT_LATE_THRESHOLD_NANOS + MS;
+
+        for (int i = 1; i < 3 * FrameScheduler.MAX_CONSECUTIVE_DROPS; i++) {
+            final long pts = i * FRAME_US;
+            now = 1000 * MS + pts * 1000L + (i % 2 == 0 ? 0L : late);
+            assertEquals("frame " + i, i % 2 == 0 ? RENDER : DROP, frames.decide(pts));
+        }
+    }
+
+    @Test
+    public void reanchorShowsTheNextFrameImmediately() {
+        frames.decide(0L);
+        frames.decide(FRAME_US);
+
+        // paused for ten seconds
+        now += 10000 * MS;
+        frames.reanchor();
+
+        assertEquals(RENDER, frames.decide(2 * FRAME_US));
+        assertEquals(WAIT, frames.decide(3 * FRAME_US));
+        assertEquals(0, frames.droppedFrames());
+    }
+
+    @Test
+    public void flushReanchors() {
+        frames.decide(0L);
+        now += 5000 * MS;
+        frames.onFlush();
+
+        assertEquals(RENDER, frames.decide(90000000L));
+        assertEquals(0, frames.droppedFrames());
+    }
+
+    @Test
+    public void lateThresholdIsConfigurable() {
+        frames = new FrameScheduler(new FrameScheduler.Clock() {
+            @Override
+            public long nanoTime() {
+                return now;
+            }
+        }, 10 * MS);
+        frames.decide(0L);
+
+        now += FRAME_US * 1000L + 11 * MS;
+        assertEquals(DROP, frames.decide(FRAME_US));
+    }
+
+    @Test
+    public void queueDepthFollowsBuffers() {
+        frames.onInputQueued();
+        frames.onInputQueued();
+        frames.onInputQueued();
+        frames.onOutputDequeued();
+        assertEquals(2, frames.queueDepth());
+
+        frames.onFlush();
+        assertEquals(0, frames.queueDepth());
+
+        // output the decoder held across a flush doesn't go negative
+        frames.onOutputDequeued();
+        assertEquals(0, frames.queueDepth());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlyphLayoutTest {
+
+    private static final float DELTA = 1e-4f;
+    private static final float LINE_HEIGHT = 20f;
+    private static final float ADVANCE = 10f;
+    private static final float PADDING = 2f;
+
+    /**
+     * Every letter is 10 wide in a padded cell like the atlas makes; '#' has no glyph.
+     */
+    private static final GlyphLayout.GlyphSource SOURCE = new GlyphLayout.GlyphSource() {
+        private final GlyphLayout.Glyph letter = new GlyphLayout.Glyph(ADVANCE, -PADDING, -PADDING,
+                ADVANCE + 2 * PADDING, LINE_HEIGHT + 2 * PADDING, 0f, 0f, 1f, 1f);
+        private final GlyphLayout.Glyph space = new GlyphLayout.Glyph(ADVANCE, 0f, 0f, 0f, 0f, 0f, 0f, 0f, 0f);
+
+        @Override
+        public GlyphLayout.Glyph glyph(final char c) {
+            if (c == '#') return null;
+            return c == ' ' ? space : letter;
+        }
+
+        @Override
+        public float lineHeight() {
+            return LINE_HEIGHT;
+        }
+    };
+
+    private static float x(final GlyphLayout layout, final int glyph, final int vertex) {
+        return layout.vertices()[glyph * GlyphLayout.FLOATS_PER_GLYPH + vertex * GlyphLayout.FLOATS_PER_VERTEX];
+    }
+
+    private static float y(final GlyphLayout layout, final int glyph, final int vertex) {
+        return layout.vertices()[glyph * GlyphLayout.FLOATS_PER_GLYPH + vertex * GlyphLayout.FLOATS_PER_VERTEX + 1];
+    }
+
+    @Test
+    public void paddedCellIsCentredOnTheGlyph() {
+        final GlyphLayout layout = new GlyphLayout();
+        assertTrue(layout.layout("ab", SOURCE, 200f));
+
+        assertEquals(2, layout.glyphCount());
+        assertEquals(LINE_HEIGHT, layout.height(), DELTA);
+
+        // line top is -height / 2 and the first pen position -width / 2; the padding reaches past both
+        assertEquals(-LINE_HEIGHT / 2f - PADDING, y(layout, 0, 0), DELTA);
+        assertEquals(LINE_HEIGHT / 2f + PADDING, y(layout, 0, 2), DELTA);
+        assertEquals(-ADVANCE - PADDING, x(layout, 0, 0), DELTA);
+        assertEquals(-PADDING, x(layout, 1, 0), DELTA);
+    }
+
+    @Test
+    public void wrapsAtSpacesAndStacksLines() {
+        final GlyphLayout layout = new GlyphLayout();
+        // "aaa bbb" is 70 wide: only one word fits in 50
+        assertTrue(layout.layout("aaa bbb", SOURCE, 50f));
+
+        assertEquals(6, layout.glyphCount());
+        assertEquals(2 * LINE_HEIGHT, layout.height(), DELTA);
+
+        assertEquals(-LINE_HEIGHT - PADDING, y(layout, 0, 0), DELTA);
+        assertEquals(-PADDING, y(layout, 3, 0), DELTA);
+        // each line is centred on its own, trailing space excluded
+        assertEquals(-15f - PADDING, x(layout, 3, 0), DELTA);
+    }
+
+    @Test
+    public void missingGlyphLeavesLayoutEmpty() {
+        final GlyphLayout layout = new GlyphLayout();
+
+        assertFalse(layout.layout("a#b", SOURCE, 200f));
+        assertEquals(0, layout.glyphCount());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderSchedulerTest {
+
+    private static final long FRAME = RenderScheduler.DEFAULT_FRAME_INTERVAL_NANOS;
+
+    private int requests;
+    private RenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        requests = 0;
+        scheduler = new RenderScheduler(new RenderScheduler.Target() {
+            @Override
+            public void requestRender() {
+                requests++;
+            }
+        });
+    }
+
+    @Test
+    public void firstInvalidationRequestsRender() {
+        scheduler.invalidate();
+
+        assertEquals(1, requests);
+        assertEquals(0, scheduler.coalescedRequests());
+    }
+
+    @Test
+    public void invalidationsWhilePendingAreCoalesced() {
+        scheduler.invalidate();
+        scheduler.invalidate();
+        scheduler.invalidate();
+
+        assertEquals(1, requests);
+        assertEquals(2, scheduler.coalescedRequests());
+    }
+
+    @Test
+    public void invalidationAfterFrameBeginsRequestsAnother() {
+        scheduler.invalidate();
+        scheduler.invalidate();
+        assertTrue(scheduler.beginFrame());
+
+        scheduler.invalidate();
+
+        assertEquals(2, requests);
+        assertEquals(1, scheduler.coalescedRequests());
+    }
+
+    @Test
+    public void pendingUntilFrameBegins() {
+        assertFalse(scheduler.isPending());
+
+        scheduler.invalidate();
+        assertTrue(scheduler.isPending());
+
+        scheduler.beginFrame();
+        assertFalse(scheduler.isPending());
+    }
+
+    @Test
+    public void frameWithoutInvalidationIsUnchanged() {
+        // the very first frame always draws
+        assertTrue(scheduler.beginFrame());
+        assertFalse(scheduler.beginFrame());
+
+        scheduler.invalidate();
+        assertTrue(scheduler.beginFrame());
+        assertFalse(scheduler.beginFrame());
+    }
+
+    @Test
+    public void invalidationDuringFrameMarksNextFrameChanged() {
+        scheduler.invalidate();
+        assertTrue(scheduler.beginFrame());
+
+        // arrives while the GL thread is drawing the frame that just began
+        scheduler.invalidate();
+        scheduler.onFrameDrawn(FRAME);
+
+        assertTrue(scheduler.beginFrame());
+    }
+
+    @Test
+    public void resetDrawsNextFrameAndAllowsNewRequest() {
+        scheduler.invalidate();
+        scheduler.reset();
+
+        scheduler.invalidate();
+        assertEquals(2, requests);
+        assertEquals(0, scheduler.coalescedRequests());
+        assertTrue(scheduler.beginFrame());
+    }
+
+    @Test
+    public void countsVsyncsMissedBetweenFrames() {
+        scheduler.onFrameDrawn(0L);
+        scheduler.onFrameDrawn(FRAME);
+        assertEquals(0, scheduler.skippedFrames());
+
+        scheduler.onFrameDrawn(4 * FRAME);
+        assertEquals(2, scheduler.skippedFrames());
+        assertEquals(3, scheduler.drawnFrames());
+    }
+
+    @Test
+    public void resetDoesNotCountIdleTimeAsSkipped() {
+        scheduler.onFrameDrawn(0L);
+        scheduler.reset();
+        scheduler.onFrameDrawn(100 * FRAME);
+
+        assertEquals(0, scheduler.skippedFrames());
+    }
+
+    @Test
+    public void countsUnchangedFrames() {
+        scheduler.onFrameSkipped();
+        scheduler.onFrameSkipped();
+
+        assertEquals(2, scheduler.unchangedFrames());
+        assertEquals(0, scheduler.drawnFrames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveFrameInterval() {
+        scheduler.setFrameIntervalNanos(0L);
+    }
+}
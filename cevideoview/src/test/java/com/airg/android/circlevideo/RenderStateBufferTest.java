@@ -0,0 +1,137 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class RenderStateBufferTest {
+
+    private static final int ROUNDS = 10;
+    private static final int STEPS = 10000;
+
+    private final float[] from = {-1f, -1f, 1f, 1f};
+    private final float[] to = {-0.5f, -0.5f, 0.5f, 0.5f};
+
+    private RenderStateBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new RenderStateBuffer();
+    }
+
+    private void publish(final float fraction) {
+        buffer.edit().set(from, to, fraction, 0.1f, 0.5f, fraction, 1f, 0.01f, 640, 360, 1080, 608);
+        buffer.publish();
+    }
+
+    @Test
+    public void readerStartsWithAnUnanimatedFullQuad() {
+        final RenderState state = buffer.latest();
+
+        assertEquals(-1f, state.left(), 0f);
+        assertEquals(1f, state.top(), 0f);
+        assertEquals(0, state.videoWidth);
+    }
+
+    @Test
+    public void readerGetsTheLatestPublishedState() {
+        publish(0.25f);
+        publish(0.5f);
+
+        assertEquals(0.5f, buffer.latest().geometryFraction, 0f);
+    }
+
+    @Test
+    public void readerKeepsItsStateUntilItAsksAgain() {
+        publish(0.25f);
+        final RenderState drawing = buffer.latest();
+
+        // however many steps the animation publishes meanwhile
+        for (int i = 0; i < 10; i++) {
+            assertNotSame(drawing, buffer.edit());
+            publish(0.5f + i / 100f);
+        }
+
+        assertEquals(0.25f, drawing.geometryFraction, 0f);
+        assertEquals(0.59f, buffer.latest().geometryFraction, 1e-6f);
+    }
+
+    @Test
+    public void nothingNewKeepsTheSameState() {
+        publish(0.25f);
+        final RenderState drawing = buffer.latest();
+
+        assertSame(drawing, buffer.latest());
+    }
+
+    @Test
+    public void unanimatedStateUsesTheSameQuadForBothEnds() {
+        buffer.edit().set(-0.5f, -0.25f, 0.5f, 0.75f, 0.3f, 1.5f, 0.01f, 640, 360, 320, 180);
+        buffer.publish();
+
+        final RenderState state = buffer.latest();
+        assertEquals(-0.5f, state.left(), 0f);
+        assertEquals(-0.25f, state.bottom(), 0f);
+        assertEquals(0.5f, state.right(), 0f);
+        assertEquals(0.75f, state.top(), 0f);
+        assertEquals(0.3f, state.cropRadius(), 0f);
+        assertEquals(320, state.displayedVideoWidth);
+    }
+
+    /**
+     * A publish per animation step and a read per frame. As in {@link SubtitlesRendererAllocationTest}, the quietest
+     * round has to allocate nothing.
+     */
+    @Test
+    public void handoffAllocatesNothing() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final long thread = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        float sink = 0f;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allocated = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < STEPS; i++) {
+                publish((float) i / STEPS);
+                sink += buffer.latest().left();
+            }
+            final long measured = threads.getThreadAllocatedBytes(thread);
+            final long overhead = threads.getThreadAllocatedBytes(thread) - measured;
+            least = Math.min(least, measured - allocated - overhead);
+        }
+
+        assertEquals(0L, least);
+        assertTrue(sink < 0f);
+    }
+}
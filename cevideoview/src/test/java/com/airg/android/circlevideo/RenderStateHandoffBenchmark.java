@@ -0,0 +1,138 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+
+package com.airg.android.circlevideo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the {@link RenderStateBuffer} the way {@link VideoRenderer} does during an expand or collapse: animation
+ * steps fill and publish states as fast as they can under a lock standing in for the renderer lock, while a frame
+ * takes the latest state and draws from it for a while. Prints what taking the state costs a frame.
+ * <p>
+ * Fails if a frame ever gets a state mixing two steps, or one that changes while the frame is still using it. The
+ * timing depends on the machine and is not checked; the frame side never takes the lock, which is what keeps it from
+ * waiting for animation steps.
+ */
+public class RenderStateHandoffBenchmark {
+
+    private static final int FRAMES = 20000;
+    // how long a frame keeps using its state
+    private static final long FRAME_NANOS = 20000L;
+
+    private final Object rendererLock = new Object();
+    private final RenderStateBuffer states = new RenderStateBuffer();
+    private final float[] quadFrom = new float[4];
+    private final float[] quadTo = new float[4];
+    private volatile boolean animating;
+    private volatile long steps;
+
+    /**
+     * Everything in a step is derived from the step number, so a state mixing two steps shows.
+     */
+    private void publishStep(final int n) {
+        final float f = n % 1000 / 1000f;
+        quadFrom[0] = -f;
+        quadFrom[1] = -f;
+        quadFrom[2] = f;
+        quadFrom[3] = f;
+        System.arraycopy(quadFrom, 0, quadTo, 0, 4);
+
+        states.edit().set(quadFrom, quadTo, f, f, f, f, 1f, 0f, n, n, n, n);
+        states.publish();
+    }
+
+    private static void assertConsistent(final RenderState state, final int step) {
+        final float f = step % 1000 / 1000f;
+        assertEquals(f, state.geometryFraction, 0f);
+        assertEquals(f, state.right(), 0f);
+        assertEquals(f, state.top(), 0f);
+        assertEquals(f, state.cropRadius(), 0f);
+        assertEquals(step, state.videoHeight);
+        assertEquals(step, state.displayedVideoWidth);
+        assertEquals(step, state.displayedVideoHeight);
+    }
+
+    private Thread startAnimation() {
+        animating = true;
+
+        final Thread animation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int n = 0;
+                while (animating) {
+                    synchronized (rendererLock) {
+                        publishStep(++n);
+                    }
+                    steps = n;
+                    if (n % 64 == 0) Thread.yield();
+                }
+            }
+        }, "animation");
+        animation.start();
+        return animation;
+    }
+
+    @Test
+    public void framesGetWholeStatesWithoutWaiting() throws InterruptedException {
+        synchronized (rendererLock) {
+            publishStep(0);
+        }
+
+        final Thread animation = startAnimation();
+        final long[] reads = new long[FRAMES];
+        int newStates = 0;
+        int previous = -1;
+
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                final long start = System.nanoTime();
+                final RenderState state = states.latest();
+                reads[i] = System.nanoTime() - start;
+
+                final int step = state.videoWidth;
+                assertConsistent(state, step);
+                assertTrue("went back from step " + previous + " to " + step, step >= previous);
+                if (step != previous) newStates++;
+                previous = step;
+
+                // the animation keeps publishing while this frame draws
+                LockSupport.parkNanos(FRAME_NANOS);
+                assertConsistent(state, step);
+            }
+        } finally {
+            animating = false;
+            animation.join();
+        }
+
+        Arrays.sort(reads);
+        System.out.println(String.format(Locale.US, "render state handoff: %d frames saw %d new states out of %d "
+                        + "steps; taking the state took median %dns, 90th %dns, max %dns", FRAMES, newStates, steps,
+                reads[FRAMES / 2], reads[FRAMES * 9 / 10], reads[FRAMES - 1]));
+
+        assertTrue(newStates > 1);
+    }
+}
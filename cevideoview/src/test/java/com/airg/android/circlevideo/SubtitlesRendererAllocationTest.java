@@ -0,0 +1,128 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Counts heap allocations on the subtitle draw path. GL, Matrix and GLUtils calls are android.jar stubs here, so only
+ * our own allocations are counted.
+ * <p>
+ * The JVM allocates a little on its own while it compiles a hot loop, so frames are drawn in rounds and the quietest
+ * round has to allocate nothing. Anything allocated per frame shows up in every round.
+ */
+public class SubtitlesRendererAllocationTest {
+
+    private static final int ROUNDS = 10;
+    private static final int FRAMES = 10000;
+
+    private SubtitlesRenderer renderer;
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        renderer = new SubtitlesRenderer(null, null, 16, 640, newScheduler(), false);
+        renderer.init();
+    }
+
+    private static RenderScheduler newScheduler() {
+        return new RenderScheduler(new RenderScheduler.Target() {
+            @Override
+            public void requestRender() {
+            }
+        });
+    }
+
+    @Test
+    public void steadyFramesAllocateNothing() {
+        long least = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allocated = allocatedBytes();
+            for (int i = 0; i < FRAMES; i++)
+                drawFrame(1080f, 1920f, 640, 96);
+            least = Math.min(least, allocatedBytes() - allocated - overhead());
+        }
+
+        assertEquals(0L, least);
+    }
+
+    @Test
+    public void resizedFramesAllocateNothing() {
+        long least = Long.MAX_VALUE;
+
+        // every frame a different surface and cue size, as during an expand animation with changing cues
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allocated = allocatedBytes();
+            for (int i = 0; i < FRAMES; i++)
+                drawFrame(540f + i, 960f + i, 640, 48 + i % 3);
+            least = Math.min(least, allocatedBytes() - allocated - overhead());
+        }
+
+        assertEquals(0L, least);
+    }
+
+    @Test
+    public void framesWithoutCueAllocateNothing() {
+        long least = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allocated = allocatedBytes();
+            for (int i = 0; i < FRAMES; i++)
+                renderer.render(1080f, 1920f);
+            least = Math.min(least, allocatedBytes() - allocated - overhead());
+        }
+
+        assertEquals(0L, least);
+    }
+
+    /**
+     * What {@link SubtitlesRenderer#render(float, float)} does for a rasterised cue of the given size. The stubbed
+     * GLUtils never looks at the bitmap.
+     */
+    private void drawFrame(final float width, final float height, final int cueWidth, final int cueHeight) {
+        renderer.updateMatrices(width, height, cueWidth, cueHeight);
+        renderer.renderBitmap(null);
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return bytes the two measurements themselves allocate
+     */
+    private long overhead() {
+        final long first = allocatedBytes();
+        return allocatedBytes() - first;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parse and lookup throughput for caption files of 100 to 50,000 cues. Prints one line per size; fails only on wrong
+ * output or if the cost per cue grows with the size of the file, which is what the old quadratic converter did.
+ */
+public class WebVttParserBenchmark {
+
+    private static final int[] CUE_COUNTS = {100, 1000, 10000, 50000};
+    // a linear parser stays within noise of its per-cue cost; the quadratic one was 50x worse at 50,000 cues
+    private static final double MAX_PER_CUE_GROWTH = 10.0;
+
+    private static final int RUNS = 7;
+    private static final long MIN_RUN_NANOS = 50000000L;
+
+    private static String file(final int cues) {
+        final StringBuilder vtt = new StringBuilder(cues * 64).append("WEBVTT\n\n");
+
+        for (int i = 0; i < cues; i++) {
+            final long start = i * 2000L;
+            vtt.append(i + 1).append('\n');
+            timestamp(vtt, start).append(" --> ");
+            timestamp(vtt, start + 1500L).append(" align:center\n");
+            vtt.append("Cue number ").append(i).append('\n');
+            if (i % 3 == 0) vtt.append("<i>with a second line</i>\n");
+            vtt.append('\n');
+        }
+
+        return vtt.toString();
+    }
+
+    private static StringBuilder timestamp(final StringBuilder out, final long ms) {
+        return out.append(String.format(Locale.US, "%02d:%02d:%02d.%03d",
+                ms / 3600000L, ms / 60000L % 60L, ms / 1000L % 60L, ms % 1000L));
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * @return median nanoseconds per call of <code>task</code>
+     */
+    private static double measure(final Task task) throws IOException {
+        // warm up and find how many calls make a run long enough to time
+        int calls = 1;
+        while (true) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) task.run();
+            if (System.nanoTime() - start >= MIN_RUN_NANOS) break;
+            calls *= 2;
+        }
+
+        final double[] runs = new double[RUNS];
+        for (int r = 0; r < RUNS; r++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) task.run();
+            runs[r] = (double) (System.nanoTime() - start) / calls;
+        }
+
+        Arrays.sort(runs);
+        return runs[RUNS / 2];
+    }
+
+    @Test
+    public void parseIsLinearInCueCount() throws IOException {
+        double smallest = 0.0;
+
+        for (final int count : CUE_COUNTS) {
+            final String vtt = file(count);
+
+            final double textNanos = measure(new Task() {
+                @Override
+                public void run() {
+                    assertEquals(count, WebVttParser.parse(vtt).size());
+                }
+            });
+
+            final double readerNanos = measure(new Task() {
+                @Override
+                public void run() throws IOException {
+                    assertEquals(count, WebVttParser.parse(new StringReader(vtt)).size());
+                }
+            });
+
+            System.out.println(String.format(Locale.US,
+                    "parse %6d cues: %9.3fms (%6.1fns/cue), from a Reader %9.3fms (%6.1fns/cue)",
+                    count, textNanos / 1e6, textNanos / count, readerNanos / 1e6, readerNanos / count));
+
+            final double perCue = textNanos / count;
+            if (smallest == 0.0 || perCue < smallest) smallest = perCue;
+            assertTrue("parse cost per cue grew to " + perCue + "ns at " + count + " cues",
+                    perCue <= smallest * MAX_PER_CUE_GROWTH);
+        }
+    }
+
+    @Test
+    public void lookupCostPerPosition() throws IOException {
+        for (final int count : CUE_COUNTS) {
+            final CueTimeline timeline = WebVttParser.parse(file(count));
+            final long duration = count * 2000L;
+            final int positions = 10000;
+
+            final double nanos = measure(new Task() {
+                @Override
+                public void run() {
+                    int showing = 0;
+                    for (int i = 0; i < positions; i++) {
+                        if (timeline.indexAt(i * duration / positions) != CueTimeline.NO_CUE) showing++;
+                    }
+                    assertTrue(showing > 0);
+                }
+            });
+
+            System.out.println(String.format(Locale.US, "lookup in %6d cues: %6.1fns", count, nanos / positions));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2019 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.circlevideo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WebVttParserTest {
+
+    private static final String FILE = "\uFEFFWEBVTT - sample\n" +
+            "\n" +
+            "NOTE a comment\n" +
+            "spanning two lines\n" +
+            "\n" +
+            "intro\n" +
+            "00:00:01.000 --> 00:00:04.500 line:0 align:start\n" +
+            "Hello\n" +
+            "<i>world</i>\n" +
+            "\n" +
+            "00:05.250 --> 00:07.000\n" +
+            "Second cue\n" +
+            "\n" +
+            "\n" +
+            "01:00:00.000 --> 01:00:02.001\n" +
+            "Last cue, no trailing blank line";
+
+    private static void assertCue(final long start, final long end, final String text, final SubtitleCue cue) {
+        assertEquals(start, cue.startMs);
+        assertEquals(end, cue.endMs);
+        assertEquals(text, cue.text);
+    }
+
+    private static long timestamp(final String s) {
+        return WebVttParser.parseTimestamp(s, 0, s.length());
+    }
+
+    @Test
+    public void parsesHoursMinutesSecondsAndMillis() {
+        assertEquals(3723456L, timestamp("01:02:03.456"));
+        assertEquals(0L, timestamp("00:00:00.000"));
+        assertEquals(360000000L, timestamp("100:00:00.000"));
+    }
+
+    @Test
+    public void parsesTimestampWithoutHours() {
+        assertEquals(123456L, timestamp("02:03.456"));
+        assertEquals(59999L, timestamp("00:59.999"));
+    }
+
+    @Test
+    public void skipsLeadingWhitespaceAndIgnoresCueSettings() {
+        final String line = "00:00:01.000 -->  \t00:00:02.500 position:10%";
+        final int arrow = line.indexOf("-->");
+
+        assertEquals(1000L, WebVttParser.parseTimestamp(line, 0, arrow));
+        assertEquals(2500L, WebVttParser.parseTimestamp(line, arrow + 3, line.length()));
+    }
+
+    @Test
+    public void rejectsMalformedTimestamps() {
+        assertEquals(-1L, timestamp(""));
+        assertEquals(-1L, timestamp("1.000"));
+        assertEquals(-1L, timestamp("00:01"));
+        assertEquals(-1L, timestamp("00:01.00"));
+        assertEquals(-1L, timestamp("00:01.0a0"));
+        assertEquals(-1L, timestamp(":01.000"));
+        assertEquals(-1L, timestamp("00::01.000"));
+        assertEquals(-1L, timestamp("00:00:00:01.000"));
+        assertEquals(-1L, timestamp("aa:bb.ccc"));
+    }
+
+    @Test
+    public void parsesCuesAndSkipsHeaderNotesAndIdentifiers() {
+        final CueTimeline cues = WebVttParser.parse(FILE);
+
+        assertEquals(3, cues.size());
+        assertCue(1000L, 4500L, "Hello\n<i>world</i>", cues.get(0));
+        assertCue(5250L, 7000L, "Second cue", cues.get(1));
+        assertCue(3600000L, 3602001L, "Last cue, no trailing blank line", cues.get(2));
+    }
+
+    @Test
+    public void handlesWindowsLineEndings() {
+        final CueTimeline cues = WebVttParser.parse(FILE.replace("\n", "\r\n"));
+
+        assertEquals(3, cues.size());
+        assertEquals("Hello\n<i>world</i>", cues.get(0).text);
+        assertEquals(7000L, cues.get(1).endMs);
+    }
+
+    @Test
+    public void readerAndCharSequenceAgree() throws IOException {
+        final CueTimeline fromText = WebVttParser.parse(FILE);
+        final CueTimeline fromReader = WebVttParser.parse(new StringReader(FILE));
+
+        assertEquals(fromText.size(), fromReader.size());
+        for (int i = 0; i < fromText.size(); i++) {
+            final SubtitleCue cue = fromText.get(i);
+            assertCue(cue.startMs, cue.endMs, cue.text, fromReader.get(i));
+        }
+    }
+
+    @Test
+    public void emitsEachCueWhenItsBlockEnds() {
+        final List<String> events = new ArrayList<>();
+
+        WebVttParser.parse("WEBVTT\n\n00:01.000 --> 00:02.000\nfirst\n\n00:03.000 --> 00:04.000\nsecond\n",
+                new WebVttParser.CueListener() {
+                    @Override
+                    public void onCue(SubtitleCue cue) {
+                        events.add(cue.text);
+                    }
+                });
+
+        assertEquals(2, events.size());
+        assertEquals("first", events.get(0));
+        assertEquals("second", events.get(1));
+    }
+
+    @Test
+    public void dropsCuesThatEndBeforeTheyStart() {
+        final CueTimeline cues = WebVttParser.parse("WEBVTT\n\n00:05.000 --> 00:01.000\nbackwards\n\n" +
+                "00:06.000 --> 00:07.000\nfine\n");
+
+        assertEquals(1, cues.size());
+        assertEquals("fine", cues.get(0).text);
+    }
+
+    @Test
+    public void emptyOrMissingInputHasNoCues() {
+        assertEquals(0, WebVttParser.parse((CharSequence) null).size());
+        assertEquals(0, WebVttParser.parse("").size());
+        assertEquals(0, WebVttParser.parse("WEBVTT\n\n").size());
+    }
+}
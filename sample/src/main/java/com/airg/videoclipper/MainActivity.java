@@ -89,13 +89,14 @@ public class MainActivity
             dialog = null;
         }
 
-        videoView.pause();
+        videoView.onPause();
         super.onPause();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        videoView.onResume();
     }
 
     @Override